@@ -0,0 +1,541 @@
+// Distributed.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Distributed simulation, with the places and people split among shards
+ *  @see Person for where shards hand people to each other
+ *  A distributed run is started with java Epidemic -shards N modelfile.
+ *  That process is the coordinator; it starts N shard processes, each
+ *  of which builds the whole model from the same random seed, so every
+ *  shard agrees on every person and place.
+ *  Each place is owned by one shard, chosen so that few people visit
+ *  places owned by other shards, and each person by the shard that
+ *  owns their home.  A shard only simulates the people it owns.  Other
+ *  people are ghosts, known only while they visit places the shard owns.
+ *  Once the places are shared out, each shard forgets the people who
+ *  are neither its own nor ever ghosts there, so the people it keeps
+ *  and saves for TimeWarp shrink as shards are added.  Every shard
+ *  still keeps every place, and building the whole model first means
+ *  each shard briefly needs the memory of an undistributed run.
+ *
+ *  Shards send these messages to each other through the coordinator:
+ *  <pre>
+ *    ARRIVE  a person arrives at a place owned by another shard
+ *    DEPART  a person leaves a place owned by another shard
+ *    STATE   a person changes disease state while at such a place
+ *    INFECT  a ghost was infected, sent to the shard that owns them
+ *  </pre>
+ *  Time advances in lockstep windows.  Each shard simulates one window,
+ *  then the messages sent during it are delivered at its end, so a
+ *  message may take effect up to one window late.  Windows in which
+ *  nothing happens are skipped.  With -optimistic, shards instead run
+ *  ahead and roll back when a message arrives late, see TimeWarp.
+ *  Each shard reports the disease states of its own people, and the
+ *  coordinator adds these up to make the usual CSV report.
+ *  Sparse activation is not supported in distributed runs.
+ */
+class Distributed {
+    private Distributed() {} // nobody should ever construct a Distributed
+
+    // message types, each followed by its fields, see send and coordinate
+    // TimeWarp uses the same types with fields of its own
+    static final byte ARRIVE = 1; // dest, person, place, state
+    static final byte DEPART = 2; // dest, person, place, state
+    static final byte STATE = 3;  // dest, person, place, state
+    static final byte INFECT = 4; // dest, person, place, state
+    static final byte REPORT = 5; // time, census, pending infections
+    static final byte DONE = 6;   // time of the next event
+    static final byte RUN = 7;    // from, until, count, messages
+    static final byte STOP = 8;
+
+    // bytes following the type of ARRIVE, DEPART, STATE and INFECT
+    private static final int LETTER = 4 + 4 + 4 + 1;
+
+    /** the length of a window of simulated time */
+    public static final double window = Time.minute;
+
+    // this shard and how many there are, shards == 0 when not distributed
+    private static int shard = 0;
+    private static int shards = 0;
+
+    // the shard that owns each place, by Place.id
+    private static int[] owner = new int[ 0 ];
+
+    // where this shard's messages go
+    private static DataOutputStream toCoordinator = null;
+
+    /** Is this process a shard of a distributed run
+     *  @return true if so
+     */
+    public static boolean isShard() {
+        return shards > 0;
+    }
+
+    /** Does this shard own a place
+     *  @param q -- the place
+     *  @return true if q is owned here, always true when not distributed
+     */
+    public static boolean isLocal( Place q ) {
+        return (shards == 0) || (owner[q.id] == shard);
+    }
+
+    // messages sent by shards, see Person
+
+    /** A person arrives at a place owned by another shard
+     *  @param p -- the person
+     *  @param q -- the place
+     */
+    static void arrive( Person p, Place q ) {
+        send( ARRIVE, owner[q.id], p, q );
+    }
+
+    /** A person departs from a place owned by another shard
+     *  @param p -- the person
+     *  @param q -- the place
+     */
+    static void depart( Person p, Place q ) {
+        send( DEPART, owner[q.id], p, q );
+    }
+
+    /** A person changes disease state in a place owned by another shard
+     *  @param p -- the person
+     *  @param q -- the place
+     */
+    static void changed( Person p, Place q ) {
+        send( STATE, owner[q.id], p, q );
+    }
+
+    /** A ghost visiting a place here was infected
+     *  @param p -- the person
+     */
+    static void infect( Person p ) {
+        send( INFECT, owner[p.home().id], p, p.home() );
+    }
+
+    /** Report this shard's population statistics
+     *  @param time -- the time of the report
+     *  @param census -- the number of people here in each disease state
+     *  @param pending -- how many people here have an infection pending
+     */
+    static void report( double time, int[] census, int pending ) {
+        if (TimeWarp.isEnabled()) {
+            TimeWarp.report( time, census, pending );
+            return;
+        }
+        try {
+            toCoordinator.writeByte( REPORT );
+            toCoordinator.writeDouble( time );
+            for (int n: census) toCoordinator.writeInt( n );
+            toCoordinator.writeInt( pending );
+        } catch ( IOException e ) {
+            Error.fatal( "shard " + shard + ": " + e.getMessage() );
+        }
+    }
+
+    /** Send a message about a person to another shard
+     *  @param type -- ARRIVE, DEPART, STATE or INFECT
+     *  @param dest -- the shard the message is for
+     *  @param p -- the person
+     *  @param q -- the place
+     */
+    private static void send( byte type, int dest, Person p, Place q ) {
+        if (TimeWarp.isEnabled()) {
+            TimeWarp.send( type, dest, p, q );
+            return;
+        }
+        try {
+            toCoordinator.writeByte( type );
+            toCoordinator.writeInt( dest );
+            toCoordinator.writeInt( p.id );
+            toCoordinator.writeInt( q.id );
+            toCoordinator.writeByte( p.state() );
+        } catch ( IOException e ) {
+            Error.fatal( "shard " + shard + ": " + e.getMessage() );
+        }
+    }
+
+    /** Deliver a message about a person to this shard
+     *  @param type -- ARRIVE, DEPART, STATE or INFECT
+     *  @param time -- the time of delivery
+     *  @param p -- the person
+     *  @param q -- the place
+     *  @param state -- the disease state of the person when it was sent
+     */
+    static void deliver(
+            byte type, double time, Person p, Place q, int state
+    ) {
+        switch (type) {
+        case ARRIVE:
+            p.ghostArrives( time, q, state );
+            break;
+        case DEPART:
+            p.ghostDeparts( time, q );
+            break;
+        case STATE:
+            p.ghostChanges( time, state );
+            break;
+        case INFECT:
+            p.infectNow( time );
+            break;
+        default:
+            Error.fatal( "shard " + shard + ": bad message " + type );
+        }
+    }
+
+    /** Decide which shard owns each place
+     *  Every shard computes the same partition, and the first one
+     *  reports how good it is.
+     *  @see Partition
+     */
+    private static void partition() {
+        owner = Partition.compute( shards );
+        if (shard == 0) Partition.printStatistics( owner, shards, System.err );
+    }
+
+    /** Does a person ever visit a place owned by this shard
+     *  @param p -- the person
+     *  @return true if some followed schedule takes p to a local place
+     *  Only those who do can ever be ghosts here.
+     */
+    private static boolean visitsHere( Person p ) {
+        final boolean[] here = { false };
+        p.forEachVisit( (Place q, Schedule s)-> {
+            if (isLocal( q )) here[0] = true;
+        } );
+        return here[0];
+    }
+
+    /** Run one shard of a distributed simulation
+     *  @param address -- host:port of the coordinator
+     *  @param index -- the number of this shard, from zero
+     *  @param count -- the number of shards
+     *  @param seed -- the random seed shared by all shards
+     *  @param horizon -- how far Time Warp runs ahead, 0 to use windows
+     *  @param file -- the name of the model file
+     *  This returns when the coordinator says to stop.
+     */
+    static void runShard( String address, int index, int count, long seed,
+            double horizon, String file
+    ) {
+        final int colon = address.lastIndexOf( ':' );
+        try (Socket s = new Socket(
+                address.substring( 0, colon ),
+                Integer.parseInt( address.substring( colon + 1 ) )
+        )) {
+            s.setTcpNoDelay( true );
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream( s.getInputStream() )
+            );
+            toCoordinator = new DataOutputStream(
+                    new BufferedOutputStream( s.getOutputStream() )
+            );
+
+            // every shard builds the same model
+            Epidemic.reset();
+            MyRandom.stream.setSeed( seed );
+            if (horizon > 0.0) MyRandom.setCommon( seed ); // see TimeWarp
+            final double end = Epidemic.buildModel( file );
+            if (Person.isSparse()) {
+                Error.fatal( "sparse models cannot be distributed" );
+            }
+
+            // keep only this shard's people, then go separate ways
+            shard = index;
+            shards = count;
+            partition();
+            for (int i = 0; i < Person.population(); i++) {
+                final Person p = Person.byIndex( i );
+                if (!isLocal( p.home() )) p.becomeGhost();
+            }
+            Progression.discard( (Person p)-> !isLocal( p.home() ) );
+            Person.discard(
+                    (Person p)-> !isLocal( p.home() ) && !visitsHere( p )
+            );
+            Occupancy.reset(); // only sparse runs use it, see above
+            MyRandom.stream.setSeed(
+                    seed ^ (0x9E3779B97F4A7C15L * (index + 1))
+            );
+            Person.startReporting( false, end );
+
+            toCoordinator.writeInt( index );
+            toCoordinator.writeDouble( end );
+            toCoordinator.flush();
+            if (horizon > 0.0) {
+                TimeWarp.runShard( in, toCoordinator, index, horizon );
+                return;
+            }
+
+            // simulate windows until told to stop
+            for (byte type = in.readByte(); type != STOP;
+                    type = in.readByte()
+            ) {
+                if (type != RUN) {
+                    Error.fatal( "shard " + index + ": bad message " + type );
+                }
+                final double from = in.readDouble();
+                final double until = in.readDouble();
+                final int letters = in.readInt();
+                for (int i = 0; i < letters; i++) {
+                    final byte t = in.readByte();
+                    in.readInt(); // the destination, this shard
+                    final Person p = Person.byIndex( in.readInt() );
+                    final Place q = Place.byIndex( in.readInt() );
+                    deliver( t, from, p, q, in.readByte() );
+                }
+                Simulator.run( until );
+                toCoordinator.writeByte( DONE );
+                toCoordinator.writeDouble( Simulator.next() );
+                toCoordinator.flush();
+            }
+        } catch ( FileNotFoundException e ) {
+            Error.fatal( "could not open file: " + file );
+        } catch ( IOException | NumberFormatException
+                | StringIndexOutOfBoundsException e
+        ) {
+            Error.fatal( "shard " + index + ": " + e.getMessage() );
+        }
+    }
+
+    // one row of the report, being added up from the shards' reports
+    private static class Row {
+        final int[] census = new int[ Person.stateNames().length ];
+        int pending = 0; // infections pending, see Person.epidemicOver
+        int shards = 0;  // how many shards have reported
+    }
+
+    /** The report of a distributed run, added up from the shards' reports
+     */
+    static class Report {
+        private final TreeMap<Double,Row> rows = new TreeMap<>();
+        private final int shards;
+
+        /** Start a report
+         *  @param count -- the number of shards
+         */
+        Report( int count ) {
+            shards = count;
+        }
+
+        /** Add one shard's part of a row
+         *  @param in -- where the rest of a REPORT message comes from
+         */
+        void read( DataInputStream in ) throws IOException {
+            final double time = in.readDouble();
+            final Row r = rows.computeIfAbsent( time, (Double t)-> new Row() );
+            for (int i = 0; i < r.census.length; i++) {
+                r.census[i] = r.census[i] + in.readInt();
+            }
+            r.pending = r.pending + in.readInt();
+            r.shards = r.shards + 1;
+        }
+
+        /** Print the rows all shards have reported
+         *  @param settled -- true if no messages are on their way
+         *  @param end -- the end of time
+         *  @param out -- where the CSV report goes
+         *  @return true if the epidemic is over, in which case the rest of
+         *          the report, up to the end of time, was printed too
+         */
+        boolean print( boolean settled, double end, PrintStream out ) {
+            while (!rows.isEmpty()
+                    && (rows.firstEntry().getValue().shards == shards)
+            ) {
+                final Map.Entry<Double,Row> e = rows.pollFirstEntry();
+                Person.printReport( out, e.getKey(), e.getValue().census );
+                if (settled && (e.getValue().pending == 0)
+                        && Person.epidemicOver( e.getValue().census )
+                ) {
+                    // nothing will change, so fast forward
+                    for (double t = e.getKey() + Time.day; t < end;
+                            t = t + Time.day
+                    ) {
+                        Person.printReport( out, t, e.getValue().census );
+                    }
+                    out.flush();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Coordinate a distributed simulation
+     *  @param count -- the number of shards to start
+     *  @param horizon -- how far Time Warp runs ahead, 0 to use windows
+     *  @param file -- the name of the model file
+     *  @param out -- where the CSV report goes
+     *  The shards are started on this machine and talk to this process
+     *  over the loopback interface.
+     */
+    static void coordinate(
+            int count, double horizon, String file, PrintStream out
+    ) {
+        if (!new File( file ).canRead()) {
+            Error.fatal( "could not open file: " + file );
+        }
+        final long seed = MyRandom.stream.nextLong();
+        final Process[] processes = new Process[ count ];
+        final DataInputStream[] from = new DataInputStream[ count ];
+        final DataOutputStream[] to = new DataOutputStream[ count ];
+        final Socket[] sockets = new Socket[ count ];
+        double end = 0.0;
+
+        try (ServerSocket server = new ServerSocket(
+                0, count, InetAddress.getLoopbackAddress()
+        )) {
+            final String address = server.getInetAddress().getHostAddress()
+                    + ":" + server.getLocalPort();
+            final String java = System.getProperty( "java.home" )
+                    + File.separator + "bin" + File.separator + "java";
+            for (int k = 0; k < count; k++) {
+                processes[k] = new ProcessBuilder(
+                        java, "-cp", System.getProperty( "java.class.path" ),
+                        "Epidemic", "-shard", address, Integer.toString( k ),
+                        Integer.toString( count ), Long.toString( seed ),
+                        Double.toString( horizon ), file
+                ).redirectOutput( ProcessBuilder.Redirect.DISCARD )
+                 .redirectError( ProcessBuilder.Redirect.INHERIT )
+                 .start();
+            }
+
+            // each shard says hello once its model is built
+            server.setSoTimeout( 1000 );
+            for (int connected = 0; connected < count; ) {
+                final Socket s;
+                try {
+                    s = server.accept();
+                } catch ( SocketTimeoutException e ) {
+                    for (Process p: processes) {
+                        if (!p.isAlive()) Error.fatal( "a shard failed" );
+                    }
+                    continue;
+                }
+                s.setTcpNoDelay( true );
+                final DataInputStream in = new DataInputStream(
+                        new BufferedInputStream( s.getInputStream() )
+                );
+                final int k = in.readInt();
+                end = in.readDouble();
+                sockets[k] = s;
+                from[k] = in;
+                to[k] = new DataOutputStream(
+                        new BufferedOutputStream( s.getOutputStream() )
+                );
+                connected = connected + 1;
+            }
+
+            if (horizon > 0.0) {
+                TimeWarp.exchange( from, to, end, horizon, out );
+            } else {
+                exchange( from, to, end, out );
+            }
+            for (DataOutputStream o: to) {
+                o.writeByte( STOP );
+                o.flush();
+            }
+            for (Process p: processes) p.waitFor();
+        } catch ( EOFException e ) {
+            Error.fatal( "a shard failed" );
+        } catch ( IOException e ) {
+            Error.fatal( "coordinator: " + e.getMessage() );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Socket s: sockets) {
+                try {
+                    if (s != null) s.close();
+                } catch ( IOException e ) {
+                    // nothing more can be done
+                }
+            }
+            for (Process p: processes) if (p != null) p.destroy();
+        }
+    }
+
+    /** Run the windows of a distributed simulation
+     *  @param from -- where each shard's messages come from
+     *  @param to -- where each shard's messages go
+     *  @param end -- the end of time
+     *  @param out -- where the CSV report goes
+     *  This returns at the end of time or when the epidemic is over.
+     */
+    private static void exchange(
+            DataInputStream[] from, DataOutputStream[] to,
+            double end, PrintStream out
+    ) throws IOException {
+        final int count = from.length;
+        final ByteArrayOutputStream[] mail
+                = new ByteArrayOutputStream[ count ];
+        final int[] letters = new int[ count ];
+        final byte[] letter = new byte[ LETTER ];
+        for (int k = 0; k < count; k++) mail[k] = new ByteArrayOutputStream();
+        final Report report = new Report( count );
+
+        Person.printHeadline( out );
+        double start = 0.0;
+        while (start < end) {
+            final double until = Math.min( start + window, end );
+
+            // deliver last window's mail and run this window
+            for (int k = 0; k < count; k++) {
+                to[k].writeByte( RUN );
+                to[k].writeDouble( start );
+                to[k].writeDouble( until );
+                to[k].writeInt( letters[k] );
+                mail[k].writeTo( to[k] );
+                to[k].flush();
+                mail[k].reset();
+                letters[k] = 0;
+            }
+
+            // collect this window's mail and reports
+            boolean routed = false;
+            double next = Double.POSITIVE_INFINITY;
+            for (int k = 0; k < count; k++) {
+                for (byte type = from[k].readByte(); type != DONE;
+                        type = from[k].readByte()
+                ) {
+                    if (type == REPORT) {
+                        report.read( from[k] );
+                    } else {
+                        from[k].readFully( letter );
+                        final int dest = ((letter[0] & 0xFF) << 24)
+                                | ((letter[1] & 0xFF) << 16)
+                                | ((letter[2] & 0xFF) << 8)
+                                | (letter[3] & 0xFF);
+                        mail[dest].write( type );
+                        mail[dest].write( letter );
+                        letters[dest] = letters[dest] + 1;
+                        routed = true;
+                    }
+                }
+                next = Math.min( next, from[k].readDouble() );
+            }
+
+            // print the rows all shards have reported
+            if (report.print( !routed, end, out )) return;
+
+            start = routed ? until : next;
+        }
+        out.flush();
+    }
+}
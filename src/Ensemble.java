@@ -0,0 +1,388 @@
+// Ensemble.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/** Ensembles of runs that stop as soon as the answer is precise enough
+ *  @see Epidemic#main for the -ensemble and -paired options that use this
+ *  Runs of one model, each from its own seed, are made until the 95%
+ *  confidence interval on the mean of every chosen output is narrower
+ *  than a target fraction of that mean.  Outputs are named like:
+ *  <pre>
+ *    peak:symptomatic    the most people in a state on any day
+ *    day:symptomatic     the first day that most was reached
+ *    final:recovered     the people in a state at the end
+ *  </pre>
+ *  Nothing is kept from a run except its outputs, and those are folded
+ *  into a running mean and variance and into running estimates of the
+ *  5%, 50% and 95% quantiles, so memory does not grow with the runs.
+ *  Paired runs of two scenarios with common random numbers are made the
+ *  same way, see paired.
+ */
+class Ensemble {
+    private Ensemble() {} // nobody should ever construct an Ensemble
+
+    /** the fewest runs before the intervals are trusted */
+    public static final int minimumRuns = 30;
+
+    /** the most runs, in case a target can't be met */
+    public static final int maximumRuns = 10000;
+
+    /** the quantiles estimated for each output */
+    private static final double[] quantiles = { 0.05, 0.5, 0.95 };
+
+    // where reports of runs go, nowhere
+    private static final PrintStream nowhere
+            = new PrintStream( OutputStream.nullOutputStream() );
+
+    /** The running statistics of one output
+     *  The mean and variance are by Welford's method, the quantiles are
+     *  by the P-square method of Jain and Chlamtac.
+     */
+    private static class Output {
+        final String name;
+        final boolean peak;  // peak or day, else final
+        final boolean day;   // the day of the peak
+        final int state;     // the disease state measured
+
+        int count = 0;
+        double mean = 0.0;
+        double m2 = 0.0;     // the sum of squared deviations from the mean
+        final Quantile[] q = new Quantile[ quantiles.length ];
+
+        Output( String name, boolean peak, boolean day, int state ) {
+            this.name = name;
+            this.peak = peak;
+            this.day = day;
+            this.state = state;
+            for (int i = 0; i < quantiles.length; i++) {
+                q[i] = new Quantile( quantiles[i] );
+            }
+        }
+
+        /** Fold one run into the statistics
+         *  @param x -- the value of the output in that run
+         */
+        void add( double x ) {
+            count = count + 1;
+            final double delta = x - mean;
+            mean = mean + delta / count;
+            m2 = m2 + delta * (x - mean);
+            for (Quantile qi: q) qi.add( x );
+        }
+
+        /** @return the half width of the 95% confidence interval */
+        double halfWidth() {
+            if (count < 2) return Double.POSITIVE_INFINITY;
+            return 1.96 * Math.sqrt( m2 / ((count - 1) * (double)count) );
+        }
+    }
+
+    /** A running estimate of one quantile, by the P-square method
+     *  Five markers track the minimum, the quantile, the maximum and the
+     *  quantiles half way between; their heights are adjusted with a
+     *  parabolic fit as values arrive.
+     */
+    private static class Quantile {
+        final double p;
+        final double[] height = new double[ 5 ];
+        final double[] position = new double[ 5 ];  // from 1 to count
+        final double[] desired = new double[ 5 ];
+        final double[] step;
+        int count = 0;
+
+        Quantile( double p ) {
+            this.p = p;
+            step = new double[] { 0, p / 2, p, (1 + p) / 2, 1 };
+        }
+
+        /** Fold in one value
+         *  @param x -- the value
+         */
+        void add( double x ) {
+            if (count < 5) { // just keep the first few
+                height[count] = x;
+                count = count + 1;
+                if (count == 5) {
+                    Arrays.sort( height );
+                    for (int i = 0; i < 5; i++) position[i] = i + 1;
+                    desired[0] = 1;
+                    desired[1] = 1 + 2 * p;
+                    desired[2] = 1 + 4 * p;
+                    desired[3] = 3 + 2 * p;
+                    desired[4] = 5;
+                }
+                return;
+            }
+            count = count + 1;
+
+            // find the cell x falls in, stretching the ends if needed
+            int k;
+            if (x < height[0]) {
+                height[0] = x;
+                k = 0;
+            } else if (x >= height[4]) {
+                height[4] = x;
+                k = 3;
+            } else {
+                k = 0;
+                while (x >= height[k + 1]) k = k + 1;
+            }
+            for (int i = k + 1; i < 5; i++) position[i] = position[i] + 1;
+            for (int i = 0; i < 5; i++) desired[i] = desired[i] + step[i];
+
+            // move the middle markers toward where they should be
+            for (int i = 1; i <= 3; i++) {
+                final double d = desired[i] - position[i];
+                if (((d >= 1) && (position[i + 1] - position[i] > 1))
+                        || ((d <= -1) && (position[i - 1] - position[i] < -1))
+                ) {
+                    final int s = (d > 0) ? 1 : -1;
+                    final double h = parabolic( i, s );
+                    if ((height[i - 1] < h) && (h < height[i + 1])) {
+                        height[i] = h;
+                    } else { // the parabola overshot, go linear
+                        height[i] = height[i] + s * (height[i + s] - height[i])
+                                / (position[i + s] - position[i]);
+                    }
+                    position[i] = position[i] + s;
+                }
+            }
+        }
+
+        /** The parabolic prediction of a marker's new height
+         *  @param i -- the marker
+         *  @param s -- the direction it moves, 1 or -1
+         *  @return the predicted height
+         */
+        private double parabolic( int i, int s ) {
+            return height[i] + s / (position[i + 1] - position[i - 1])
+                    * ((position[i] - position[i - 1] + s)
+                            * (height[i + 1] - height[i])
+                            / (position[i + 1] - position[i])
+                      + (position[i + 1] - position[i] - s)
+                            * (height[i] - height[i - 1])
+                            / (position[i] - position[i - 1]));
+        }
+
+        /** @return the current estimate of the quantile */
+        double value() {
+            if (count >= 5) return height[2];
+            if (count == 0) return Double.NaN;
+            final double[] first = Arrays.copyOf( height, count );
+            Arrays.sort( first );
+            return first[ (int)Math.round( p * (count - 1) ) ];
+        }
+    }
+
+    /** Run an ensemble, from the command line
+     *  @param how -- the target and the outputs separated by commas,
+     *                as on the command line
+     *  @param file -- the name of the model file
+     *  @param seed -- where the seeds of all the runs come from
+     *  @param out -- where the results go
+     */
+    public static void run(
+            String[] how, String file, long seed, PrintStream out
+    ) {
+        double target = 0.0;
+        try {
+            target = Double.parseDouble( how[0] );
+        } catch ( NumberFormatException e ) {
+            target = 0.0;
+        }
+        if (!(target > 0.0)) {
+            Error.fatal( "-ensemble " + how[0] + ": bad target" );
+        }
+
+        final Output[] outputs = outputs( how[1] );
+        run( target, outputs, file, seed, out );
+    }
+
+    /** Parse a list of outputs
+     *  @param list -- the names of the outputs, separated by commas
+     *  @return the outputs, with no runs folded in
+     */
+    private static Output[] outputs( String list ) {
+        final String[] words = list.split( "," );
+        final Output[] outputs = new Output[ words.length ];
+        final String[] states = Person.stateNames();
+        for (int i = 0; i < words.length; i++) {
+            final String[] w = words[i].split( ":" );
+            final int state = (w.length == 2)
+                    ? Arrays.asList( states ).indexOf( w[1] )
+                    : -1;
+            if ((state < 0)
+                    || !Arrays.asList( "peak", "day", "final" ).contains( w[0] )
+            ) {
+                Error.fatal( "not an output: " + words[i] );
+            }
+            outputs[i] = new Output( words[i],
+                    !"final".equals( w[0] ), "day".equals( w[0] ), state
+            );
+        }
+        return outputs;
+    }
+
+    /** Run an ensemble
+     *  @param target -- the widest acceptable half width of any interval,
+     *                   as a fraction of its mean
+     *  @param outputs -- what to measure
+     *  @param file -- the name of the model file
+     *  @param seed -- where the seeds of all the runs come from
+     *  @param out -- where the results go
+     */
+    private static void run( double target, Output[] outputs,
+            String file, long seed, PrintStream out
+    ) {
+        int runs = 0;
+        while (runs < maximumRuns) {
+            final double[] v = replica(
+                    outputs, file, MyRandom.substreamSeed( seed, runs )
+            );
+            for (int i = 0; i < outputs.length; i++) outputs[i].add( v[i] );
+            runs = runs + 1;
+            if ((runs >= minimumRuns) && precise( outputs, target )) break;
+        }
+
+        out.println( "output,runs,mean,half width,5%,median,95%" );
+        for (Output o: outputs) {
+            out.print( o.name + "," + o.count );
+            out.print( String.format( ",%.4g,%.3g", o.mean, o.halfWidth() ) );
+            for (Quantile q: o.q) {
+                out.print( String.format( ",%.4g", q.value() ) );
+            }
+            out.println();
+        }
+        if (!precise( outputs, target )) {
+            Error.warn( "-ensemble: target not met in " + runs + " runs" );
+        }
+    }
+
+    /** Compare two scenarios with common random numbers
+     *  @param runs -- how many pairs of runs to make
+     *  @param list -- the names of the outputs, separated by commas
+     *  @param fileA, fileB -- the names of the model files
+     *  @param seed -- where the seeds of all the runs come from
+     *  @param out -- where the results go
+     *  Both runs of each pair use the same seed, and MyRandom.setCommon,
+     *  so they make the same draws for the same decisions.  The difference
+     *  B-A is then estimated from the differences within pairs, which vary
+     *  far less than the outputs do when the scenarios are alike.  For
+     *  comparison, this also gives the half width that unpaired runs would
+     *  have, and how many times more of them it would take to match.
+     */
+    public static void paired( int runs, String list,
+            String fileA, String fileB, long seed, PrintStream out
+    ) {
+        final Output[] a = outputs( list );
+        final Output[] b = outputs( list );
+        final Output[] d = outputs( list );
+        for (int run = 0; run < runs; run++) {
+            final long s = MyRandom.substreamSeed( seed, run );
+            MyRandom.setCommon( s );
+            final double[] va = replica( a, fileA, s );
+            MyRandom.setCommon( s );
+            final double[] vb = replica( b, fileB, s );
+            for (int i = 0; i < a.length; i++) {
+                a[i].add( va[i] );
+                b[i].add( vb[i] );
+                d[i].add( vb[i] - va[i] );
+            }
+        }
+        MyRandom.resetCommon();
+
+        out.println( "output,runs,mean A,mean B,difference,half width,"
+                + "unpaired half width,runs saved"
+        );
+        for (int i = 0; i < d.length; i++) {
+            final double unpaired = Math.hypot(
+                    a[i].halfWidth(), b[i].halfWidth()
+            );
+            final double hw = d[i].halfWidth();
+            out.println( String.format( "%s,%d,%.4g,%.4g,%.4g,%.3g,%.3g,%.3g",
+                    d[i].name, runs, a[i].mean, b[i].mean, d[i].mean,
+                    hw, unpaired, (unpaired * unpaired) / (hw * hw)
+            ) );
+        }
+    }
+
+    /** Are all the outputs known precisely enough
+     *  @param outputs -- the outputs
+     *  @param target -- the widest acceptable half width, relative to mean
+     *  @return true if every interval is narrow enough
+     */
+    private static boolean precise( Output[] outputs, double target ) {
+        for (Output o: outputs) {
+            if (o.halfWidth() > target * Math.abs( o.mean )) return false;
+        }
+        return true;
+    }
+
+    /** Make one run and measure its outputs
+     *  @param outputs -- the outputs
+     *  @param file -- the name of the model file
+     *  @param seed -- the seed of this run
+     *  @return the value of each output in this run
+     *  Population statistics are sampled at the start of each day, as in
+     *  the daily reports.  The run stops early once the epidemic is over,
+     *  see Person.epidemicOver, since then nothing can change; the last
+     *  census taken is the final one, and no later peak is missed.
+     */
+    private static double[] replica(
+            Output[] outputs, String file, long seed
+    ) {
+        Epidemic.reset();
+        MyRandom.stream.setSeed( seed );
+        double end = 0.0;
+        try {
+            end = Epidemic.buildModel( file );
+        } catch ( FileNotFoundException e ) {
+            Error.fatal( "could not open file: " + file );
+        }
+        Person.setOutput( nowhere );
+        Person.startReporting( false, end );
+
+        final int states = Person.stateNames().length;
+        final int[] peak = new int[ states ];
+        final int[] peakDay = new int[ states ];
+        int[] census = Person.census();
+        System.arraycopy( census, 0, peak, 0, states );
+        boolean over = false;
+        for (int day = 1; day * Time.day < end; day++) {
+            over = Person.epidemicOver();
+            if (over) break;
+            Simulator.run( day * Time.day );
+            census = Person.census();
+            for (int s = 0; s < states; s++) {
+                if (census[s] > peak[s]) {
+                    peak[s] = census[s];
+                    peakDay[s] = day;
+                }
+            }
+        }
+        if (!over) { // the rest of the last day
+            Simulator.run( end );
+            census = Person.census();
+        }
+
+        final double[] v = new double[ outputs.length ];
+        for (int i = 0; i < outputs.length; i++) {
+            final Output o = outputs[i];
+            if (o.day) {
+                v[i] = peakDay[o.state];
+            } else if (o.peak) {
+                v[i] = peak[o.state];
+            } else {
+                v[i] = census[o.state];
+            }
+        }
+        return v;
+    }
+}
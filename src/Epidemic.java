@@ -9,6 +9,10 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 
 /** The main class
  *  This class should never be instantiated.
@@ -24,11 +28,14 @@ public class Epidemic {
      *  Identifies the keywords population, role, etc and farms out the
      *  work for most of these to the classes that construct model parts.
      *  The exception (for now) is the total population.
+     *  @return the end of time
      */
-    private static void buildModel( MyScanner in ) {
+    private static double buildModel( MyScanner in ) {
         int pop = 0;      // the population of the model, 0 = uninitialized
         int infected = 0; // number initially infected, 0 = uninitialized
         double endOfTime = 0.0;  // 0.0 = uninitialized
+        String placesFile = null;      // explicit places, null = none
+        String assignmentsFile = null; // explicit assignments, null = none
 
         // rules describing the progress of the infection
         InfectionRule latent = null;
@@ -36,6 +43,7 @@ public class Epidemic {
         InfectionRule symptomatic = null;
         InfectionRule bedridden = null;
 
+        Flight.BuildPhase phase = Flight.phase( "parse model" );
         while ( in.hasNext() ) { // scan the input file
 
             // each item begins with a keyword
@@ -89,10 +97,51 @@ public class Epidemic {
                 } else {
                     endOfTime = et;
                 }
+            } else if ("sparse".equals( keyword )) {
+                in.getNextLiteral(
+                        MyScanner.semicolon, ()-> "sparse: missing ;"
+                );
+                Person.setSparse( true );
+            } else if ("faststart".equals( keyword )) {
+                Person.setFastStart(
+                        Check.posIntSemicolon( in, ()-> "faststart" )
+                );
+            } else if ("hybrid".equals( keyword )) {
+                Place.setCrowdSize(
+                        Check.posIntSemicolon( in, ()-> "hybrid" )
+                );
+            } else if ("places".equals( keyword )) {
+                final String f = in.getNextFileName( null,
+                        ()-> "places: file name missing"
+                );
+                in.getNextLiteral(
+                        MyScanner.semicolon, ()-> "places " + f + ": missing ;"
+                );
+                if (placesFile != null) {
+                    Error.warn( "places " + f + ": duplicate places file" );
+                } else {
+                    placesFile = f;
+                }
+            } else if ("assignments".equals( keyword )) {
+                final String f = in.getNextFileName( null,
+                        ()-> "assignments: file name missing"
+                );
+                in.getNextLiteral( MyScanner.semicolon,
+                        ()-> "assignments " + f + ": missing ;"
+                );
+                if (assignmentsFile != null) {
+                    Error.warn(
+                            "assignments " + f + ": duplicate assignments file"
+                    );
+                } else {
+                    assignmentsFile = f;
+                }
             } else if ("role".equals( keyword )) {
                 new Role( in );
             } else if ("place".equals( keyword )) {
                 new PlaceKind( in );
+            } else if ("intervene".equals( keyword )) {
+                new Intervention( in );
             } else if (keyword == "???") { // there was no keyword
                 // == is allowed here 'cause we're detecting the default value
                 // we need to advance the scanner here or we'd stick in a loop
@@ -102,6 +151,8 @@ public class Epidemic {
             }
         }
 
+        Flight.end( phase );
+
         // check that all required fields are filled in
 
         if (pop == 0)             Error.warn( "population not given" );
@@ -110,37 +161,378 @@ public class Epidemic {
         if (symptomatic == null)  Error.warn( "symptomatic time not given" );
         if (bedridden == null)    Error.warn( "bedridden time not given" );
         if (endOfTime == 0.0)     Error.warn( "end of time not given" );
+        if ((assignmentsFile != null) && (placesFile == null)) {
+            Error.warn( "assignments given without places" );
+        }
 
         Error.exitIfWarnings( "Aborted due to errors in input" );
+        Parameters.checkUsed(); // misspelled overrides would do nothing
+
+        // the end of time is known only now, and calendars stop there
+        Schedule.compileAll( endOfTime * Time.day );
+
+        // explicit places must exist before anyone is put in a place
+        if (placesFile != null) {
+            phase = Flight.phase( "load places" );
+            PlaceFile.loadPlaces( placesFile );
+            Flight.end( phase );
+        }
 
         Person.setDiseaseParameters(
                 latent, asymptomatic, symptomatic, bedridden
         );
 
-        Simulator.schedule( // schedule the end of time
-                endOfTime * Time.day, (double t)-> System.exit( 0 )
-        );
-
         // Role is responsible for figuring out how many people per role
+        phase = Flight.phase( "populate roles" );
         Role.populateRoles( pop, infected );
+        Flight.end( phase );
+
+        // explicit assignments take priority over random distribution
+        if (assignmentsFile != null) {
+            phase = Flight.phase( "load assignments" );
+            PlaceFile.loadAssignments( assignmentsFile );
+            Flight.end( phase );
+        }
+
+        // this actually creates the places and puts people in them
+        phase = Flight.phase( "distribute people" );
+        PlaceKind.distributePeople();
+        Flight.end( phase );
+
+        // people and places that meet get nearby ids
+        phase = Flight.phase( "renumber" );
+        Renumber.renumber();
+        Flight.end( phase );
+
+        phase = Flight.phase( "index occupancy" );
+        Occupancy.build();
+        Place.findCrowds();
+        Flight.end( phase );
 
+        // interventions start and end by events, like everything else
+        Intervention.scheduleAll();
+
+        Error.exitIfWarnings( "Aborted due to errors in places or assignments" );
+
+        return endOfTime * Time.day;
+    }
+
+    /** Read the details of the model from a file
+     *  @param file -- the name of the file
+     *  @return the end of time
+     *  @throws FileNotFoundException if the file could not be opened
+     *  @see Distributed for why this is not private
+     */
+    static double buildModel( String file ) throws FileNotFoundException {
+        return buildModel( new MyScanner( new File( file ) ) );
+    }
+
+    /** Forget any previous model, ready to build a new one
+     *  All model state is static, so this must be called between runs
+     *  when more than one model is run in the same program.
+     */
+    static void reset() {
+        Error.reset();
+        Simulator.reset();
+        Progression.reset();
+        Occupancy.reset();
+        Partition.reset();
+        PlaceFile.reset();
+        Person.reset();
+        Place.reset();
+        PlaceKind.reset();
+        Role.reset();
+        Schedule.reset();
+        Intervention.reset();
+        Parameters.set( Collections.emptyMap() );
+    }
+
+    /** Build and run one model
+     *  @param file -- the name of the model file
+     *  @param params -- overrides for parameters of the model
+     *  @param seed -- the seed of the random number stream
+     *  @param out -- where the CSV report goes
+     *  @throws Error.Fatal if the model could not be built
+     *  @see Parameters for the overrides
+     *  @see Sweep for why this is not private
+     *  This may be called repeatedly; each call starts from scratch.
+     */
+    static void runModel(
+            String file, Map<String,Double> params, long seed, PrintStream out
+    ) throws FileNotFoundException {
+        reset();
+        MyRandom.stream.setSeed( seed );
+        Parameters.set( params );
+        Person.setOutput( out );
+        final double end = buildModel( file );
+        Person.startReporting(true, end); //start results report
+        // Person.printAll(); // BUG:  potentially useful for debugging
+        Simulator.run( end );
     }
 
     /** The main method
      *  @param args -- the command line arguments
      *  Most of this code is entirely about command line argument processing.
-     *  It calls buildModel and will eventuall also start the simulation.
+     *  Usage:  java Epidemic [options] modelfile
+     *     or:  java Epidemic -sweep [-seed n]
+     *                                    (read sweep jobs from stdin)
+     *     or:  java Epidemic -shard host:port index count seed horizon
+     *                                    modelfile
+     *                                    (one shard, started by -shards)
+     *     or:  java Epidemic -compare traceA traceB
+     *     or:  java Epidemic -equivalence runs modelfile classpathA classpathB
+     *                                    (see Regress)
+     *     or:  java Epidemic -paired runs output,... modelA modelB
+     *                                    (see Ensemble)
+     *  Options:
+     *     -jmx              expose live metrics as a JMX bean
+     *     -prometheus port  serve live metrics on localhost:port/metrics
+     *     -shards n         run distributed over n shard processes
+     *     -optimistic hours with -shards, synchronize by Time Warp,
+     *                       running up to hours ahead, see TimeWarp
+     *     -partition n      output the places in n partitions, don't run
+     *     -seed n           seed the random number stream
+     *     -trace file       write a trace of the run, see Trace
+     *     -split effort measure l1,l2,...
+     *                       estimate the chance that measure reaches the
+     *                       last level, don't run, see Splitting
+     *     -crn              draw each decision from its own stream
+     *                       so runs of similar models can be compared,
+     *                       see MyRandom
+     *     -ensemble target output,...
+     *                       run until the outputs are known to within
+     *                       the target fraction, see Ensemble
+     *     -threads n        dispatch simultaneous movements on n threads,
+     *                       implies -crn, see Parallel
+     *     -vector           draw infection delays with the Vector API,
+     *                       if it was compiled and added, see Place
      */
     public static void main( String[] args ) {
-        if (args.length < 1) Error.fatal( "missing file name" );
-        if (args.length > 1) Error.warn( "too many arguments: " + args[1] );
         try {
-            buildModel( new MyScanner( new File( args[0] ) ) );
-            Person.startReporting(true); //start results report
-            // Person.printAll(); // BUG:  potentially useful for debugging
-            Simulator.run();
-        } catch ( FileNotFoundException e ) {
-            Error.fatal( "could not open file: " + args[0] );
+            if (args.length < 1) Error.fatal( "missing file name" );
+            if ("-sweep".equals( args[0] )) {
+                long seed = MyRandom.stream.nextLong(); // unless given
+                if ((args.length == 3) && "-seed".equals( args[1] )) {
+                    try {
+                        seed = Long.parseLong( args[2] );
+                    } catch ( NumberFormatException e ) {
+                        Error.warn( "-seed " + args[2] + ": bad seed" );
+                    }
+                } else if (args.length > 1) {
+                    Error.warn( "too many arguments: " + args[1] );
+                }
+                Error.exitIfWarnings( "Aborted due to errors in input" );
+                Sweep.serve( System.in, System.out, seed );
+                return;
+            }
+            if ("-compare".equals( args[0] )) {
+                if (args.length != 3) {
+                    Error.fatal( "-compare: wrong arguments" );
+                }
+                Regress.compareTraces( args[1], args[2], System.out );
+                return;
+            }
+            if ("-equivalence".equals( args[0] )) {
+                if (args.length != 5) {
+                    Error.fatal( "-equivalence: wrong arguments" );
+                }
+                int runs = 0;
+                try {
+                    runs = Integer.parseInt( args[1] );
+                } catch ( NumberFormatException e ) {
+                    runs = 0;
+                }
+                if (runs < 2) {
+                    Error.fatal( "-equivalence " + args[1] + ": bad count" );
+                }
+                Regress.compareEngines(
+                        runs, args[2], args[3], args[4], System.out
+                );
+                return;
+            }
+            if ("-paired".equals( args[0] )) {
+                if (args.length != 5) Error.fatal( "-paired: wrong arguments" );
+                int runs = 0;
+                try {
+                    runs = Integer.parseInt( args[1] );
+                } catch ( NumberFormatException e ) {
+                    runs = 0;
+                }
+                if (runs < 2) {
+                    Error.fatal( "-paired " + args[1] + ": bad count" );
+                }
+                Ensemble.paired( runs, args[2], args[3], args[4],
+                        MyRandom.stream.nextLong(), System.out
+                );
+                return;
+            }
+            if ("-shard".equals( args[0] )) {
+                if (args.length != 7) Error.fatal( "-shard: wrong arguments" );
+                try {
+                    Distributed.runShard( args[1],
+                            Integer.parseInt( args[2] ),
+                            Integer.parseInt( args[3] ),
+                            Long.parseLong( args[4] ),
+                            Double.parseDouble( args[5] ), args[6]
+                    );
+                } catch ( NumberFormatException e ) {
+                    Error.fatal( "-shard: bad number " + e.getMessage() );
+                }
+                return;
+            }
+
+            int arg = 0;
+            int shards = 0; // not distributed
+            int parts = 0;  // not just partitioning
+            long seed = MyRandom.stream.nextLong(); // unless given
+            String trace = null; // no trace
+            boolean common = false; // no common random numbers
+            int threads = 0; // movements dispatched one at a time
+            double horizon = 0.0; // windows, not Time Warp
+            String[] split = null; // else effort, measure, levels
+            String[] ensemble = null; // else target, outputs
+            while ((arg < args.length - 1) && args[arg].startsWith( "-" )) {
+                if ("-jmx".equals( args[arg] )) {
+                    Metrics.startJMX();
+                } else if ("-prometheus".equals( args[arg] )) {
+                    arg = arg + 1;
+                    try {
+                        Metrics.startHTTP( Integer.parseInt( args[arg] ) );
+                    } catch ( NumberFormatException e ) {
+                        Error.warn( "-prometheus " + args[arg] + ": bad port" );
+                    }
+                } else if ("-shards".equals( args[arg] )) {
+                    arg = arg + 1;
+                    try {
+                        shards = Integer.parseInt( args[arg] );
+                    } catch ( NumberFormatException e ) {
+                        shards = 0;
+                    }
+                    if (shards <= 0) {
+                        Error.warn( "-shards " + args[arg] + ": bad count" );
+                    }
+                } else if ("-seed".equals( args[arg] )) {
+                    arg = arg + 1;
+                    try {
+                        seed = Long.parseLong( args[arg] );
+                    } catch ( NumberFormatException e ) {
+                        Error.warn( "-seed " + args[arg] + ": bad seed" );
+                    }
+                } else if ("-trace".equals( args[arg] )) {
+                    arg = arg + 1;
+                    trace = args[arg];
+                } else if ("-split".equals( args[arg] )) {
+                    if (arg + 3 >= args.length) {
+                        Error.fatal( "-split: wrong arguments" );
+                    }
+                    split = Arrays.copyOfRange( args, arg + 1, arg + 4 );
+                    arg = arg + 3;
+                } else if ("-crn".equals( args[arg] )) {
+                    common = true;
+                } else if ("-vector".equals( args[arg] )) {
+                    if (!Place.setVectorized()) { // not an error, just slower
+                        System.err.println( "Epidemic: -vector: "
+                                + "jdk.incubator.vector not available, "
+                                + "using the scalar loop"
+                        );
+                    }
+                } else if ("-optimistic".equals( args[arg] )) {
+                    arg = arg + 1;
+                    try {
+                        horizon = Double.parseDouble( args[arg] ) * Time.hour;
+                    } catch ( NumberFormatException e ) {
+                        horizon = 0.0;
+                    }
+                    if (!(horizon > 0.0)) {
+                        Error.warn(
+                                "-optimistic " + args[arg] + ": bad horizon"
+                        );
+                    }
+                } else if ("-threads".equals( args[arg] )) {
+                    arg = arg + 1;
+                    try {
+                        threads = Integer.parseInt( args[arg] );
+                    } catch ( NumberFormatException e ) {
+                        threads = 0;
+                    }
+                    if (threads <= 0) {
+                        Error.warn( "-threads " + args[arg] + ": bad count" );
+                    }
+                } else if ("-ensemble".equals( args[arg] )) {
+                    if (arg + 2 >= args.length) {
+                        Error.fatal( "-ensemble: wrong arguments" );
+                    }
+                    ensemble = Arrays.copyOfRange( args, arg + 1, arg + 3 );
+                    arg = arg + 2;
+                } else if ("-partition".equals( args[arg] )) {
+                    arg = arg + 1;
+                    try {
+                        parts = Integer.parseInt( args[arg] );
+                    } catch ( NumberFormatException e ) {
+                        parts = 0;
+                    }
+                    if (parts <= 0) {
+                        Error.warn( "-partition " + args[arg] + ": bad count" );
+                    }
+                } else {
+                    Error.warn( "unknown option: " + args[arg] );
+                }
+                arg = arg + 1;
+            }
+            if (arg >= args.length) Error.fatal( "missing file name" );
+            if (args.length > arg + 1) {
+                Error.warn( "too many arguments: " + args[arg + 1] );
+            }
+            MyRandom.stream.setSeed( seed );
+            if (common) MyRandom.setCommon( seed );
+            if ((threads > 0) && ((split != null) || (ensemble != null))) {
+                Error.warn( "-threads: not with -split or -ensemble" );
+            } else if (threads > 0) {
+                Parallel.setThreads( threads, seed );
+            }
+            // runModel resets Error, so argument errors must stop us here
+            Error.exitIfWarnings( "Aborted due to errors in input" );
+            if (trace != null) {
+                try {
+                    Trace.start( new PrintStream( trace ), seed );
+                } catch ( FileNotFoundException e ) {
+                    Error.fatal( "could not write file: " + trace );
+                }
+            }
+            try {
+                if (parts > 0) {
+                    reset();
+                    buildModel( args[arg] );
+                    final int[] part = Partition.compute( parts );
+                    Partition.print( part, System.out );
+                    Partition.printStatistics( part, parts, System.err );
+                    return;
+                }
+                if (split != null) {
+                    Splitting.estimate( split, args[arg], seed, System.out );
+                    return;
+                }
+                if (ensemble != null) {
+                    Ensemble.run( ensemble, args[arg], seed, System.out );
+                    return;
+                }
+                if (shards > 0) {
+                    Distributed.coordinate(
+                            shards, horizon, args[arg], System.out
+                    );
+                    return;
+                }
+                runModel(
+                        args[arg], Collections.emptyMap(), seed, System.out
+                );
+                Trace.finish( Simulator.now() );
+            } catch ( FileNotFoundException e ) {
+                Error.fatal( "could not open file: " + args[arg] );
+            } finally {
+                Metrics.stop();
+            }
+        } catch ( Error.Fatal e ) {
+            System.exit( 1 );  // abnormal termination, already reported
         }
     }
 }
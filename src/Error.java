@@ -8,19 +8,32 @@
 
 /** Error reporting framework
  *  All error messages go to System.err (aka stderr, the standard error stream).
- *  Currently, this only supports fatal error reporting.
- *  Later it would be nice to have a way to report non-fatal errors.
+ *  Fatal errors abandon the current model by throwing Error.Fatal, which
+ *  the main program turns into an abnormal exit.
+ *  Non-fatal warnings are counted so input errors can all be reported
+ *  before giving up.
  */
 class Error {
     private static int warningCount = 0;
 
+    /** Thrown to abandon a model after a fatal error
+     *  The message has already been reported when this is thrown.
+     */
+    public static class Fatal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public Fatal( String msg ) {
+            super( msg );
+        }
+    }
+
     /** Report a fatal error
      *  @param msg -- error message to be output
-     *  This never returns, the program terminates reporting failure.
+     *  This never returns, it throws Fatal.
      */
     public static void fatal( String msg ) {
         System.err.println( "Epidemic: " + msg );
-        System.exit( 1 );  // abnormal termination
+        throw new Fatal( msg );  // abnormal termination
     }
 
     /** Non-fatal warning
@@ -37,4 +50,10 @@ class Error {
     public static void exitIfWarnings( String msg ) {
         if (warningCount > 0) fatal( msg );
     }
-}
\ No newline at end of file
+
+    /** Forget all warnings, ready for a new model
+     */
+    public static void reset() {
+        warningCount = 0;
+    }
+}
@@ -0,0 +1,142 @@
+// Flight.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/** Java Flight Recorder events for the simulation's hot paths
+ *  Each event can be turned on or off, and have its threshold changed,
+ *  in a JFR settings file, for example:
+ *  <pre>
+ *    java -XX:StartFlightRecording:filename=run.jfr,settings=my.jfc ...
+ *  </pre>
+ *  where my.jfc sets epidemic.ContagionSweep#enabled or #threshold.
+ *  The defaults below record everything but the shortest sweeps.
+ */
+class Flight {
+    private Flight() {} // nobody should ever construct a Flight
+
+    /** A batch of events triggered by Simulator.run */
+    @Name( "epidemic.Dispatch" )
+    @Label( "Event Dispatch Batch" )
+    @Category( "Epidemic" )
+    @Description( "A batch of simulation events triggered in order" )
+    @Enabled( true )
+    @Threshold( "0 ms" )
+    @StackTrace( false )
+    static class Dispatch extends Event {
+        @Label( "Events" )
+        long events;
+
+        @Label( "First Simulated Day" )
+        double firstDay;
+
+        @Label( "Last Simulated Day" )
+        double lastDay;
+
+        @Label( "Events Waiting" )
+        int pending;
+    }
+
+    /** A sweep over the occupants of a place by Place.contagious */
+    @Name( "epidemic.ContagionSweep" )
+    @Label( "Contagion Sweep" )
+    @Category( "Epidemic" )
+    @Description( "Rescheduling infections when contagion in a place changes" )
+    @Enabled( true )
+    @Threshold( "20 us" )
+    @StackTrace( false )
+    static class ContagionSweep extends Event {
+        @Label( "Place Kind" )
+        String kind;
+
+        @Label( "Occupants" )
+        int occupants;
+
+        @Label( "Susceptible" )
+        int susceptible;
+
+        @Label( "Contagious" )
+        int contagious;
+    }
+
+    /** One phase of Epidemic.buildModel */
+    @Name( "epidemic.BuildPhase" )
+    @Label( "Model Build Phase" )
+    @Category( "Epidemic" )
+    @Description( "Parsing or elaborating the model" )
+    @Enabled( true )
+    @Threshold( "0 ms" )
+    static class BuildPhase extends Event {
+        @Label( "Phase" )
+        String phase;
+    }
+
+    /** Distribution of the people of one PlaceKind to places */
+    @Name( "epidemic.Distribute" )
+    @Label( "Distribute People" )
+    @Category( "Epidemic" )
+    @Description( "PlaceKind.distributePeople for one kind of place" )
+    @Enabled( true )
+    @Threshold( "0 ms" )
+    @StackTrace( false )
+    static class Distribute extends Event {
+        @Label( "Place Kind" )
+        String kind;
+
+        @Label( "People" )
+        int people;
+
+        @Label( "Places Created" )
+        int places;
+    }
+
+    /** Start a build phase
+     *  @param phase -- the name of the phase
+     *  @return the event, to be passed to end
+     */
+    static BuildPhase phase( String phase ) {
+        BuildPhase e = new BuildPhase();
+        e.phase = phase;
+        e.begin();
+        return e;
+    }
+
+    /** End a build phase
+     *  @param e -- the event returned by phase
+     */
+    static void end( BuildPhase e ) {
+        e.commit();
+    }
+
+    /** Finish one dispatch batch and start the next
+     *  @param batch -- the batch being finished, or null to just start one
+     *  @param events -- the event count at the end of the batch
+     *  @return the new batch
+     */
+    static Dispatch dispatched( Dispatch batch, long events ) {
+        final double day = Simulator.now() / Time.day;
+        if (batch != null) {
+            if (batch.shouldCommit()) {
+                batch.events = events - batch.events;
+                batch.lastDay = day;
+                batch.pending = Simulator.pending();
+                batch.commit();
+            }
+        }
+        Dispatch next = new Dispatch();
+        next.events = events; // the count at the start, until committed
+        next.firstDay = day;
+        next.begin();
+        return next;
+    }
+}
@@ -19,8 +19,10 @@ class InfectionRule {
      */
     public InfectionRule( MyScanner in, MyScanner.Message context ) {
         final double scatter;
-        median = Time.day * in.getNextFloat( 1.0,
-                ()-> context.myString() + ": median expected"
+        median = Time.day * Parameters.get(
+                context.myString() + ".median", in.getNextFloat( 1.0,
+                        ()-> context.myString() + ": median expected"
+                )
         );
         scatter = Time.day * in.getNextFloat( 0.0,
                 ()-> context.myString()  + " " + median + ": scatter expected"
@@ -66,13 +68,29 @@ class InfectionRule {
      *  @return true if recovers, false if not
      */
     public boolean recover() {
-        return rand.nextFloat() <= recovery;
+        return recover( rand );
+    }
+
+    /** Toss the dice to see if someone recovers under the terms of this rule
+     *  @param r -- the stream to draw from, see MyRandom.stream
+     *  @return true if recovers, false if not
+     */
+    public boolean recover( MyRandom r ) {
+        return r.nextFloat() <= recovery;
     }
 
     /** Toss the dice to see how long this disease state lasts under this rule
      *  @return the time until the next change of disease state
      */
     public double duration() {
-        return rand.nextLogNormal( median, sigma );
+        return duration( rand );
+    }
+
+    /** Toss the dice to see how long this disease state lasts under this rule
+     *  @param r -- the stream to draw from, see MyRandom.stream
+     *  @return the time until the next change of disease state
+     */
+    public double duration( MyRandom r ) {
+        return r.nextLogNormal( median, sigma );
     }
 }
\ No newline at end of file
@@ -0,0 +1,289 @@
+// Intervention.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.util.ArrayList;
+
+/** Scheduled interventions, closing places or scaling their transmissivity
+ *  @see Place#isClosedAt and Place#intervened for where they take effect
+ *  Each intervention applies to all places of a kind, or to some of the
+ *  explicit places of a kind, from one time to another.
+ *
+ *  Closures are known before the run, so each place and kind just keeps
+ *  the intervals when it is closed.  A visit is not made if it starts
+ *  while its place is closed; a visit that started before stays until
+ *  the person's schedule takes them home, and one that was not made is
+ *  not made later, even if the closure ends before the visit would.
+ *  This is decided by the start of the visit alone, so the movements
+ *  simulated, see Schedule.go, and the places people are known to be
+ *  without simulating their movement, see Person.scheduledAt, agree.
+ *  People keep their schedules while a place is closed, so no movement
+ *  is cancelled or scheduled again when a closure starts or ends.
+ *
+ *  Changes of transmissivity are started and ended by one event each,
+ *  which set masks on the place kind or on the places, so every place
+ *  knows at once by how much its transmissivity is scaled.  When it
+ *  changes, the infections drawn there are drawn again, but only at hot
+ *  places.
+ */
+class Intervention {
+
+    // instance variables from the input
+    private final PlaceKind kind; // the kind of place, null if undefined
+    private final int[] ids;      // explicit places, see PlaceFile, or null
+    private final boolean closes; // true to close, false to scale
+    private final double factor;  // the scale of transmissivity, if not
+    private final double start;   // when it starts, in seconds
+    private final double end;     // when it ends, in seconds
+
+    // instance variables developed during model elaboration
+    private Place[] places = null; // the explicit places, if ids
+
+    // instance variables that vary as simulation progresses
+    private boolean active = false;
+
+    // static variables used for all interventions
+    private static final ArrayList<Intervention> all = new ArrayList<>();
+
+    /** Construct a new intervention by scanning an input stream
+     *  @param in -- the input stream
+     *  Syntax: kind [ ( id ... ) ] closed start end ;
+     *      or: kind [ ( id ... ) ] factor start end ;
+     *  Meaning: from start to end, in days, the places of the kind, or the
+     *  explicit places with the ids given in the places file, are closed,
+     *  or their transmissivity is multiplied by factor.
+     *  The keyword intervene must just have been scanned from the stream,
+     *  and the kind must already be defined.
+     */
+    public Intervention( MyScanner in ) {
+        final String name = in.getNextName(
+                "???", ()-> "intervene: place name expected"
+        );
+        kind = PlaceKind.findPlaceKind( name );
+        if (kind == null) {
+            Error.warn( "intervene " + name + ": undefined place?" );
+        }
+
+        // get the explicit places, if any
+        if (in.tryNextLiteral( MyScanner.beginParen )) {
+            final ArrayList<Integer> list = new ArrayList<>();
+            while (in.hasNext() && !in.tryNextLiteral( MyScanner.endParen )) {
+                list.add( in.getNextInt(
+                        -1, ()-> "intervene " + name + " (: id expected"
+                ) );
+            }
+            ids = new int[ list.size() ];
+            for (int i = 0; i < ids.length; i++) ids[i] = list.get( i );
+        } else {
+            ids = null;
+        }
+
+        // get the effect
+        if (in.hasNext( "closed" )) {
+            in.next();
+            closes = true;
+            factor = 0.0;
+        } else {
+            closes = false;
+            final double f = in.getNextFloat( 1.0F,
+                    ()-> "intervene " + name + ": closed or factor expected"
+            );
+            factor = Check.nonNeg( f, 1.0F,
+                    ()-> "intervene " + name + " " + f + ": negative factor?"
+            );
+        }
+
+        // get the times
+        final double st = in.getNextFloat(
+                0.0F, ()-> this.describe() + ": start time expected"
+        );
+        final double et = in.getNextFloat(
+                st, ()-> this.describe() + " " + st + ": end time expected"
+        );
+        in.getNextLiteral(
+                MyScanner.semicolon,
+                ()-> this.describe() + " " + st + " " + et + ": missing ;"
+        );
+
+        // check sanity constraints
+        Check.nonNeg( st, 0.0F,
+                ()-> this.describe() + " " + st + ": start time is yesterday"
+        );
+        if (st >= et) {
+            Error.warn( this.describe() + " " + st + " " + et
+                    + ": times out of order"
+            );
+        }
+
+        start = st * Time.day;
+        end = et * Time.day;
+        all.add( this ); // include this in the list of all
+    }
+
+    /** Produce a reasonable textual description of this intervention
+     *  @return the description, less the times
+     *  This shortens many error messages
+     */
+    private String describe() {
+        return "intervene " + ((kind == null) ? "???" : kind.name)
+                + ((ids == null) ? "" : " (...)")
+                + (closes ? " closed" : " " + factor);
+    }
+
+    /** Find the explicit places, close places, and schedule the start and
+     *  end of each change of transmissivity
+     *  This must follow PlaceFile.loadPlaces.
+     */
+    public static void scheduleAll() {
+        for (Intervention v: all) {
+            if (v.kind == null) continue; // already warned of, see above
+            if (v.ids != null) {
+                v.places = new Place[ v.ids.length ];
+                for (int i = 0; i < v.ids.length; i++) {
+                    final Place q = PlaceFile.byId( v.ids[i] );
+                    v.places[i] = q;
+                    if ((q == null) || (q.kind != v.kind)) {
+                        Error.warn( v.describe() + ": place " + v.ids[i]
+                                + " is not an explicit " + v.kind.name + "?"
+                        );
+                    }
+                }
+            }
+            if (v.closes) {
+                if (v.places == null) {
+                    v.kind.close( v.start, v.end );
+                } else {
+                    for (Place q: v.places) {
+                        if (q != null) q.close( v.start, v.end );
+                    }
+                }
+            } else {
+                Simulator.schedule( v.start, (double t)-> v.toggle( t, true ) );
+                Simulator.schedule( v.end, (double t)-> v.toggle( t, false ) );
+            }
+        }
+    }
+
+    /** Add an interval to a list of intervals
+     *  @param intervals -- from, to pairs, one after another, or null
+     *  @param from -- the start of the new interval
+     *  @param to -- its end, not included
+     *  @return the list with the new interval added
+     *  Few places are closed, and few times, so these lists are short.
+     */
+    static double[] during( double[] intervals, double from, double to ) {
+        final int n = (intervals == null) ? 0 : intervals.length;
+        final double[] d = new double[ n + 2 ];
+        if (n > 0) System.arraycopy( intervals, 0, d, 0, n );
+        d[n] = from;
+        d[n + 1] = to;
+        return d;
+    }
+
+    /** Is a time in one of a list of intervals
+     *  @param intervals -- from, to pairs, as made by during, or null
+     *  @param time -- the time
+     *  @return true if from <= time < to for some pair
+     */
+    static boolean within( double[] intervals, double time ) {
+        if (intervals == null) return false;
+        for (int i = 0; i < intervals.length; i = i + 2) {
+            if ((intervals[i] <= time) && (time < intervals[i + 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Start or end this change of transmissivity
+     *  @param time -- the current time
+     *  @param on -- true to start it, false to end it
+     *  This is a schedulable event service routine.
+     */
+    private void toggle( double time, boolean on ) {
+        active = on;
+        remask();
+
+        // draw the infections at hot places again at the new rate
+        if (places == null) {
+            for (int i = 0; i < Place.count(); i++) {
+                final Place q = Place.byIndex( i );
+                if (q.kind == kind) q.transmissivityChanged( time );
+            }
+        } else {
+            for (Place q: places) q.transmissivityChanged( time );
+        }
+    }
+
+    /** Set the masks of all places and kinds from the active changes of
+     *  transmissivity
+     *  Masks are set from scratch, so overlapping interventions combine
+     *  exactly, whatever order they start and end in.
+     */
+    private static void remask() {
+        for (Intervention v: all) v.mask( false );
+        for (Intervention v: all) {
+            if (v.active) v.mask( true );
+        }
+    }
+
+    /** Clear or apply the mask of this intervention
+     *  @param apply -- false to clear the masks it touches, true to apply
+     */
+    private void mask( boolean apply ) {
+        if (closes) return; // closures are not masks, see scheduleAll
+        if (places == null) {
+            if (apply) {
+                kind.mask( factor );
+            } else {
+                kind.unmask();
+            }
+        } else {
+            for (Place q: places) {
+                if (apply) {
+                    q.mask( factor );
+                } else {
+                    q.unmask();
+                }
+            }
+        }
+    }
+
+    /** The active interventions, as saved by save
+     */
+    static class Saved {
+        private final boolean[] active = new boolean[ all.size() ];
+
+        private Saved() {
+            for (int i = 0; i < active.length; i++) {
+                active[i] = all.get( i ).active;
+            }
+        }
+    }
+
+    /** Save which interventions are active
+     *  @return the saved state, see restore
+     *  @see TimeWarp
+     */
+    static Saved save() {
+        return new Saved();
+    }
+
+    /** Make the interventions active as they were saved, masks and all
+     *  @param s -- the saved state, which may be restored again later
+     */
+    static void restore( Saved s ) {
+        for (int i = 0; i < s.active.length; i++) {
+            all.get( i ).active = s.active[i];
+        }
+        remask();
+    }
+
+    /** Forget all interventions, ready for a new model
+     */
+    public static void reset() {
+        all.clear();
+    }
+}
@@ -0,0 +1,219 @@
+// Metrics.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** Live progress of a simulation, for JMX and for Prometheus scrapes
+ *  @see MetricsMBean for what is exposed
+ *  The simulation thread publishes an immutable snapshot after each
+ *  batch of events, see Simulator.run.  Readers on other threads only
+ *  ever read the latest snapshot through a volatile reference, so they
+ *  never block the simulation and never see a half updated census.
+ */
+public class Metrics implements MetricsMBean {
+    // is anyone watching
+    private static boolean enabled = false;
+
+    // the HTTP server for Prometheus scrapes, if any
+    private static HttpServer server = null;
+
+    // one consistent view of the simulation, never changed once published
+    private static class Snapshot {
+        final double days;
+        final long events;
+        final double rate;
+        final long wallTime;
+        final int pending;
+        final String[] states = Person.stateNames();
+        final int[] census = Person.census();
+        final String[] kinds = PlaceKind.names();
+        final int[] contagious = PlaceKind.contagiousCounts();
+
+        Snapshot( Snapshot previous ) {
+            days = Simulator.now() / Time.day;
+            events = Simulator.eventCount();
+            pending = Simulator.pending();
+            wallTime = System.nanoTime();
+            if ((previous == null) || (wallTime == previous.wallTime)) {
+                rate = 0.0;
+            } else {
+                rate = (events - previous.events) * 1e9
+                        / (wallTime - previous.wallTime);
+            }
+        }
+    }
+
+    // the latest snapshot
+    private static volatile Snapshot latest = null;
+
+    /** Is anyone watching
+     *  @return true if snapshots should be published
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Publish a snapshot of the simulation
+     *  This must only be called from the simulation thread.
+     */
+    static void publish() {
+        latest = new Snapshot( latest );
+    }
+
+    /** Register the JMX bean
+     *  The bean is registered as epidemic:type=Metrics.
+     */
+    public static void startJMX() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new Metrics(), new ObjectName( "epidemic:type=Metrics" )
+            );
+            enabled = true;
+        } catch ( JMException e ) {
+            Error.warn( "metrics: " + e.getMessage() );
+        }
+    }
+
+    /** Serve Prometheus text format on a local port
+     *  @param port -- the port, on the loopback interface
+     *  Scrapes are served from /metrics by one daemon thread.
+     */
+    public static void startHTTP( int port ) {
+        try {
+            server = HttpServer.create( new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), port
+            ), 0 );
+        } catch ( IOException e ) {
+            Error.warn( "metrics port " + port + ": " + e.getMessage() );
+            return;
+        }
+        server.createContext( "/metrics", (exchange)-> {
+            byte[] body = prometheus().getBytes( StandardCharsets.UTF_8 );
+            exchange.getResponseHeaders().set(
+                    "Content-Type", "text/plain; version=0.0.4"
+            );
+            exchange.sendResponseHeaders( 200, body.length );
+            try (OutputStream o = exchange.getResponseBody()) {
+                o.write( body );
+            }
+        } );
+        server.setExecutor( Executors.newSingleThreadExecutor( (r)-> {
+            Thread t = new Thread( r, "metrics" );
+            t.setDaemon( true );
+            return t;
+        } ) );
+        server.start();
+        enabled = true;
+    }
+
+    /** Stop serving metrics
+     */
+    public static void stop() {
+        if (server != null) server.stop( 0 );
+        server = null;
+    }
+
+    /** Format the latest snapshot for Prometheus
+     *  @return the text exposition
+     */
+    private static String prometheus() {
+        final Snapshot s = latest;
+        final StringBuilder b = new StringBuilder();
+        if (s == null) return "";
+
+        gauge( b, "epidemic_simulated_days", "simulated time in days" );
+        b.append( "epidemic_simulated_days " ).append( s.days ).append( '\n' );
+        b.append( "# HELP epidemic_events_total events triggered\n" );
+        b.append( "# TYPE epidemic_events_total counter\n" );
+        b.append( "epidemic_events_total " ).append( s.events ).append( '\n' );
+        gauge( b, "epidemic_events_per_second", "recent event rate" );
+        b.append( "epidemic_events_per_second " ).append( s.rate );
+        b.append( '\n' );
+        gauge( b, "epidemic_event_set_size", "events waiting" );
+        b.append( "epidemic_event_set_size " ).append( s.pending );
+        b.append( '\n' );
+        gauge( b, "epidemic_heap_used_bytes", "heap in use" );
+        b.append( "epidemic_heap_used_bytes " ).append( heapUsed() );
+        b.append( '\n' );
+        gauge( b, "epidemic_population", "people by disease state" );
+        for (int i = 0; i < s.states.length; i++) {
+            b.append( "epidemic_population{state=\"" ).append( s.states[i] );
+            b.append( "\"} " ).append( s.census[i] ).append( '\n' );
+        }
+        gauge( b, "epidemic_contagious", "contagious people by place kind" );
+        for (int i = 0; i < s.kinds.length; i++) {
+            b.append( "epidemic_contagious{place_kind=\"" );
+            b.append( s.kinds[i] ).append( "\"} " );
+            b.append( s.contagious[i] ).append( '\n' );
+        }
+        return b.toString();
+    }
+
+    private static void gauge( StringBuilder b, String name, String help ) {
+        b.append( "# HELP " ).append( name ).append( ' ' ).append( help );
+        b.append( "\n# TYPE " ).append( name ).append( " gauge\n" );
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage().getUsed();
+    }
+
+    // the JMX view of the latest snapshot
+
+    public double getSimulatedDays() {
+        final Snapshot s = latest;
+        return (s == null) ? 0.0 : s.days;
+    }
+
+    public long getEventsDispatched() {
+        final Snapshot s = latest;
+        return (s == null) ? 0 : s.events;
+    }
+
+    public double getEventsPerSecond() {
+        final Snapshot s = latest;
+        return (s == null) ? 0.0 : s.rate;
+    }
+
+    public int getEventSetSize() {
+        final Snapshot s = latest;
+        return (s == null) ? 0 : s.pending;
+    }
+
+    public long getHeapUsed() {
+        return heapUsed();
+    }
+
+    public String[] getDiseaseStates() {
+        final Snapshot s = latest;
+        return (s == null) ? new String[0] : s.states.clone();
+    }
+
+    public int[] getPopulationByState() {
+        final Snapshot s = latest;
+        return (s == null) ? new int[0] : s.census.clone();
+    }
+
+    public String[] getPlaceKinds() {
+        final Snapshot s = latest;
+        return (s == null) ? new String[0] : s.kinds.clone();
+    }
+
+    public int[] getContagiousByPlaceKind() {
+        final Snapshot s = latest;
+        return (s == null) ? new int[0] : s.contagious.clone();
+    }
+}
@@ -0,0 +1,38 @@
+// MetricsMBean.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+/** Management interface for watching a simulation while it runs
+ *  @see Metrics for the implementation
+ *  JMX requires this interface to be public and named after Metrics.
+ */
+public interface MetricsMBean {
+    /** @return simulated time, in days */
+    double getSimulatedDays();
+
+    /** @return events triggered since the program started */
+    long getEventsDispatched();
+
+    /** @return recent events triggered per second of wall clock time */
+    double getEventsPerSecond();
+
+    /** @return number of events waiting to be triggered */
+    int getEventSetSize();
+
+    /** @return bytes of heap in use */
+    long getHeapUsed();
+
+    /** @return names of disease states, in the order of the census */
+    String[] getDiseaseStates();
+
+    /** @return number of people in each disease state */
+    int[] getPopulationByState();
+
+    /** @return names of the kinds of places */
+    String[] getPlaceKinds();
+
+    /** @return number of contagious occupants of each kind of place */
+    int[] getContagiousByPlaceKind();
+}
@@ -14,6 +14,12 @@ import java.util.Random;
  *  Users can allocate MyRandom myStream = MyRandom.stream;
  *                  or MyRandom myStream = MyRandom.stream();
  *  No matter how they do it, they get the same stream
+ *
+ *  For comparing scenarios with common random numbers, each stochastic
+ *  decision may instead draw from its own stream, keyed by the decision,
+ *  the entity deciding and how many times it decided before, see
+ *  setCommon.  Paired runs of two scenarios then make the same draws for
+ *  the same decisions, even after the order of events has diverged.
  */
 class MyRandom extends Random {
     /** the only random number stream
@@ -25,6 +31,57 @@ class MyRandom extends Random {
         super();
     }
 
+    /** decisions that can draw from their own streams, see stream */
+    public static final int FOLLOW = 1;   // by person, and schedule
+    public static final int DURATION = 2; // by person, and disease state
+    public static final int RECOVER = 3;  // by person, and disease state
+    public static final int DELAY = 4;    // by person, and count of delays
+    public static final int SIZE = 5;     // by place kind, and count of sizes
+    public static final int CROWD = 6;    // by place, and count of draws
+    public static final int VICTIM = 7;   // by place, and count of draws
+
+    // the stream for keyed decisions, reseeded for each
+    // each thread has its own, see Parallel
+    private static final ThreadLocal<MyRandom> keyed
+            = ThreadLocal.withInitial( MyRandom::new );
+
+    // are keyed decisions drawn from their own streams, and the family
+    private static boolean common = false;
+    private static long commonSeed = 0;
+
+    /** Draw keyed decisions from their own streams from now on
+     *  @param seed -- the seed of the whole family of streams
+     *  Runs with the same seed make the same keyed draws.
+     */
+    public static void setCommon( long seed ) {
+        common = true;
+        commonSeed = seed;
+    }
+
+    /** Draw keyed decisions from the only stream again
+     */
+    public static void resetCommon() {
+        common = false;
+    }
+
+    /** The stream for one stochastic decision
+     *  @param decision -- what is decided, such as FOLLOW
+     *  @param entity -- who decides, by creation order, see Person.draws
+     *  @param occurrence -- which of its decisions of this kind this is
+     *  @return the only stream, unless setCommon was called; otherwise a
+     *          stream for this decision alone, good until the next call
+     */
+    public static MyRandom stream(
+            int decision, long entity, long occurrence
+    ) {
+        if (!common) return stream;
+        final MyRandom r = keyed.get();
+        r.setSeed( substreamSeed( substreamSeed(
+                commonSeed + ((long)decision << 56), entity
+        ), occurrence ) );
+        return r;
+    }
+
     /* alternative access to the only random number stream
      * @return the only stream
      */
@@ -32,14 +89,27 @@ class MyRandom extends Random {
         return stream;
     }
 
+    /** seed for one of a family of independent streams
+     *  @param seed -- the seed of the whole family
+     *  @param key -- which stream of the family
+     *  @return a seed, from the SplitMix64 sequence that starts at seed
+     */
+    public static long substreamSeed( long seed, long key ) {
+        long z = seed + (key + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     // add distributions that weren't built in
 
     /** exponential distribution
      *  @param mean -- the mean value of the distribution
      *  @return a positive exponentially distributed random value
+     *  1 - nextDouble() is never 0, so the value is never infinite.
      */
     public double nextExponential( double mean ) {
-        return mean * -Math.log( this.nextDouble() );
+        return mean * -Math.log( 1.0 - this.nextDouble() );
     }
 
     /** log-normal distribution
@@ -44,6 +44,10 @@ class MyScanner {
     private static final Pattern namePat
             = Pattern.compile( "([A-Za-z][0-9A-Za-z]*)|" );
 
+    // file names run up to the next delimiter or semicolon
+    private static final Pattern fileNamePat
+            = Pattern.compile( "([^ \t\n\r;]+)|" );
+
     // if it's not an int, it begins with a non-digit, non-negative-sign
     private static final Pattern NotIntPat
             = Pattern.compile( "([^-0-9]*)|" );
@@ -97,6 +101,23 @@ class MyScanner {
         }
     }
 
+    /** get the next file name from the scanner or complain if missing
+     *  See fileNamePat for the details of what makes a file name.
+     *  @param defalt  -- return value if there is no next file name
+     *  @param errorMesage -- the message to complain with (lambda expression)
+     *  @return the next file name or the defalt
+     */
+    public String getNextFileName( String defalt, Message errorMessage ) {
+        String name = sc.skip( delimPat ).skip( fileNamePat ).match().group();
+
+        if (name.isEmpty()) { // missing file name
+            Error.warn( errorMessage.myString() );
+            return defalt;
+        } else { // there was a file name
+            return name;
+        }
+    }
+
     /** get the next integer from the scanner or complain if missing
      *  See intPat for the details of what makes a float.
      *  @param defalt  -- return value if there is no next integer
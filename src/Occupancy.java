@@ -0,0 +1,202 @@
+// Occupancy.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** Where people are at any time, derived from their schedules
+ *  @see Schedule for the time windows used here
+ *  @see Person#scheduledAt for the same question asked about one person
+ *  Schedules are deterministic once it is known which ones each person
+ *  follows, so the occupants of a place at any time can be computed
+ *  without simulating anyone's movement.
+ *  The index has, for each place, its residents and its visitors.
+ *  Visitors are grouped by schedule slot so each slot is accepted or
+ *  rejected as a whole by asking whether the time falls in its window,
+ *  and whether the place was closed when that visit started.
+ *  The index must be built after all people are put in their places.
+ */
+class Occupancy {
+    private Occupancy() {} // nobody should ever construct an Occupancy
+
+    // residents of place q are residents[ homeStart[q] .. homeStart[q+1] )
+    private static int[] homeStart = new int[ 1 ];
+    private static int[] residents = new int[ 0 ];
+
+    // visitors of place q are visits[ visitStart[q] .. visitStart[q+1] )
+    // each visit packs Schedule.id in the high half and Person.id in the
+    // low half so sorting a place's visits groups them by schedule slot
+    private static int[] visitStart = new int[ 1 ];
+    private static long[] visits = new long[ 0 ];
+
+    /** Build the index from the current population
+     *  This must be called after PlaceKind.distributePeople.
+     */
+    public static void build() {
+        final int places = Place.count();
+        final int people = Person.population();
+
+        // first pass, count residents and followed visits per place
+        homeStart = new int[ places + 1 ];
+        visitStart = new int[ places + 1 ];
+        for (int i = 0; i < people; i++) {
+            Person p = Person.byIndex( i );
+            homeStart[ p.home().id + 1 ]++;
+            p.forEachVisit( (Place q, Schedule s)-> visitStart[ q.id + 1 ]++ );
+        }
+        for (int q = 0; q < places; q++) {
+            homeStart[ q + 1 ] = homeStart[ q + 1 ] + homeStart[ q ];
+            visitStart[ q + 1 ] = visitStart[ q + 1 ] + visitStart[ q ];
+        }
+
+        // second pass, fill in the people, using fill as a cursor per place
+        residents = new int[ homeStart[ places ] ];
+        visits = new long[ visitStart[ places ] ];
+        final int[] homeFill = Arrays.copyOf( homeStart, places );
+        final int[] visitFill = Arrays.copyOf( visitStart, places );
+        for (int i = 0; i < people; i++) {
+            final Person p = Person.byIndex( i );
+            final int q = p.home().id;
+            residents[ homeFill[q] ] = p.id;
+            homeFill[q]++;
+            p.forEachVisit( (Place v, Schedule s)-> {
+                visits[ visitFill[v.id] ] = ((long)s.id << 32) | p.id;
+                visitFill[v.id]++;
+            } );
+        }
+
+        // finally, group each place's visitors by schedule slot
+        for (int q = 0; q < places; q++) {
+            Arrays.sort( visits, visitStart[q], visitStart[q + 1] );
+        }
+    }
+
+    /** Find where a person is scheduled to be
+     *  @param p -- the person
+     *  @param time -- the time
+     *  @return the place
+     */
+    public static Place placeOf( Person p, double time ) {
+        return p.scheduledAt( time );
+    }
+
+    /** Find who is scheduled to be in a place
+     *  @param q -- the place
+     *  @param time -- the time
+     *  @return the people there, residents first, then visitors by slot
+     */
+    public static ArrayList<Person> occupantsOf( Place q, double time ) {
+        final ArrayList<Person> result = new ArrayList<>();
+        forEachOccupant( q, time, (Person p)-> result.add( p ) );
+        return result;
+    }
+
+    /** Count who is scheduled to be in a place
+     *  @param q -- the place
+     *  @param time -- the time
+     *  @return the number of people there
+     */
+    public static int countOf( Place q, double time ) {
+        int count = 0;
+        for (int i = homeStart[q.id]; i < homeStart[q.id + 1]; i++) {
+            if (Person.byIndex( residents[i] ).scheduledAt( time ) == q) {
+                count = count + 1;
+            }
+        }
+        int i = visitStart[q.id];
+        while (i < visitStart[q.id + 1]) {
+            final int end = slotEnd( q, i );
+            if (visiting( q, i, time )) {
+                count = count + (end - i);
+            }
+            i = end;
+        }
+        return count;
+    }
+
+    /** Count everyone who might ever be in a place
+     *  @param q -- the place
+     *  @return the number of residents and visitors, see forEachAssociate
+     */
+    public static int associates( Place q ) {
+        return (homeStart[q.id + 1] - homeStart[q.id])
+                + (visitStart[q.id + 1] - visitStart[q.id]);
+    }
+
+    /** Tool for visiting people found in the index
+     */
+    public interface Visitor {
+        void visit( Person p );
+    }
+
+    /** Visit everyone scheduled to be in a place
+     *  @param q -- the place
+     *  @param time -- the time
+     *  @param v -- what to do with each person there
+     */
+    public static void forEachOccupant( Place q, double time, Visitor v ) {
+        for (int i = homeStart[q.id]; i < homeStart[q.id + 1]; i++) {
+            Person p = Person.byIndex( residents[i] );
+            if (p.scheduledAt( time ) == q) v.visit( p );
+        }
+        int i = visitStart[q.id];
+        while (i < visitStart[q.id + 1]) {
+            final int end = slotEnd( q, i );
+            if (visiting( q, i, time )) {
+                for (int j = i; j < end; j++) {
+                    v.visit( Person.byIndex( (int)visits[j] ) );
+                }
+            }
+            i = end;
+        }
+    }
+
+    /** Visit everyone who might ever be in a place
+     *  @param q -- the place
+     *  @param v -- what to do with each resident or visitor
+     *  Only visitors who follow their schedule for q are included.
+     */
+    public static void forEachAssociate( Place q, Visitor v ) {
+        for (int i = homeStart[q.id]; i < homeStart[q.id + 1]; i++) {
+            v.visit( Person.byIndex( residents[i] ) );
+        }
+        for (int i = visitStart[q.id]; i < visitStart[q.id + 1]; i++) {
+            v.visit( Person.byIndex( (int)visits[i] ) );
+        }
+    }
+
+    /** Are the visitors in a schedule slot in a place at some time
+     *  @param q -- the place
+     *  @param i -- the index in visits of the start of the slot
+     *  @param time -- the time
+     *  @return true if the slot's window contains the time and the place
+     *          was not closed when the visit started, see Person.scheduledAt
+     */
+    private static boolean visiting( Place q, int i, double time ) {
+        final Schedule s = Schedule.byIndex( (int)(visits[i] >>> 32) );
+        return s.contains( time ) && !q.isClosedAt( s.visitStart( time ) );
+    }
+
+    /** Find the end of a schedule slot among the visitors of a place
+     *  @param q -- the place
+     *  @param i -- the index in visits of the start of the slot
+     *  @return the index just past the last visit in the slot
+     */
+    private static int slotEnd( Place q, int i ) {
+        final long next = ((visits[i] >>> 32) + 1) << 32; // first of next slot
+        int end = Arrays.binarySearch( visits, i, visitStart[q.id + 1], next );
+        return (end < 0) ? -(end + 1) : end;
+    }
+
+    /** Forget the index, ready for a new model
+     */
+    public static void reset() {
+        homeStart = new int[ 1 ];
+        residents = new int[ 0 ];
+        visitStart = new int[ 1 ];
+        visits = new long[ 0 ];
+    }
+}
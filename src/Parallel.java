@@ -0,0 +1,321 @@
+// Parallel.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Parallel dispatch of the movements that happen at the same time
+ *  @see Epidemic#main for the -threads option that selects this
+ *  Schedules make great numbers of people move at exactly the same tick,
+ *  the burst hours of the day.  A movement touches only the place left,
+ *  the place entered and the people in them, so movements that touch
+ *  disjoint places commute.  Simulator hands each run of movements at
+ *  the head of a batch to Parallel, which groups the movements that share
+ *  a place by union-find over the places, and runs the groups on all the
+ *  threads.  Each group runs on one thread in batch order, so each place
+ *  is owned by one thread for the whole burst and needs no locks.
+ *
+ *  Events scheduled while the groups run are held, and added to the event
+ *  set afterwards in the order of the first movement of each group, so
+ *  sequence numbers, and with them the order of later ties, don't depend
+ *  on which thread ran what.  Draws come from keyed streams, see
+ *  MyRandom.setCommon, so they don't depend on it either.  A run gives
+ *  the same results with any number of threads, though not the same as
+ *  a sequential run, which triggers the same movements in another order.
+ *
+ *  Sparse mode wakes people in other places, and shards send messages, so
+ *  in both, movements are dispatched one at a time.
+ */
+class Parallel {
+    private Parallel() {} // nobody should ever construct a Parallel
+
+    /** bursts smaller than this are dispatched one at a time */
+    public static final int minimum = 256;
+
+    // how many threads, 0 if not parallel, and the workers if more than 1
+    private static int threads = 0;
+    private static ExecutorService pool = null;
+
+    // the movements of the current burst
+    private static int size = 0;
+    private static int[] kinds = new int[ 1024 ];
+    private static int[] as = new int[ 1024 ];
+    private static long[] bs = new long[ 1024 ];
+
+    // union-find over places; entries are valid where stamps == burst
+    private static int burst = 0;
+    private static int[] parents = new int[ 0 ];
+    private static int[] stamps = new int[ 0 ];
+
+    // groups, by root place and by movement; then the movements of group g
+    // are members[ starts[g] .. starts[g + 1] - 1 ] in batch order
+    private static int groups = 0;
+    private static int[] groupOfRoot = new int[ 0 ];
+    private static int[] groupStamps = new int[ 0 ];
+    private static int[] groupOf = new int[ 1024 ];
+    private static int[] members = new int[ 1024 ];
+    private static int[] starts = new int[ 1025 ];
+
+    // where the events scheduled by each group are held
+    private static Held[] heldBy = new Held[ 1024 ];
+    private static int[] heldFrom = new int[ 1024 ];
+    private static int[] heldTo = new int[ 1024 ];
+
+    // is scheduling held, see Simulator.add
+    private static boolean holding = false;
+
+    // the next group to run
+    private static final AtomicInteger next = new AtomicInteger();
+
+    /** Events held by one thread, in parallel arrays
+     */
+    private static class Held {
+        int size = 0;
+        double[] times = new double[ 256 ];
+        int[] kinds = new int[ 256 ];
+        int[] as = new int[ 256 ];
+        long[] bs = new long[ 256 ];
+        Simulator.Action[] acts = new Simulator.Action[ 256 ];
+
+        /** hold an event
+         *  @param t, kind, a, b, act -- the event
+         */
+        void add( double t, int kind, int a, long b, Simulator.Action act ) {
+            if (size == times.length) { // grow, doubling the size
+                times = Arrays.copyOf( times, 2 * size );
+                kinds = Arrays.copyOf( kinds, 2 * size );
+                as = Arrays.copyOf( as, 2 * size );
+                bs = Arrays.copyOf( bs, 2 * size );
+                acts = Arrays.copyOf( acts, 2 * size );
+            }
+            times[size] = t;
+            kinds[size] = kind;
+            as[size] = a;
+            bs[size] = b;
+            acts[size] = act;
+            size = size + 1;
+        }
+    }
+
+    // the held events of each thread
+    private static final ThreadLocal<Held> held
+            = ThreadLocal.withInitial( Held::new );
+
+    /** Dispatch movements in parallel from now on
+     *  @param n -- how many threads, at least 1
+     *  @param seed -- the seed of the keyed streams, see MyRandom.setCommon
+     *  One thread gives the same results as many, only slower.
+     */
+    public static void setThreads( int n, long seed ) {
+        threads = n;
+        MyRandom.setCommon( seed );
+        if (n > 1) {
+            pool = Executors.newFixedThreadPool( n, (Runnable r)-> {
+                final Thread t = new Thread( r, "dispatch" );
+                t.setDaemon( true ); // don't keep the program alive
+                return t;
+            } );
+        }
+    }
+
+    /** Should movements be dispatched in parallel now
+     *  @return true if so
+     */
+    public static boolean isEnabled() {
+        return (threads > 0) && !Person.isSparse() && !Distributed.isShard();
+    }
+
+    /** Is scheduling held
+     *  @return true while groups run, see Simulator.add
+     */
+    static boolean isHolding() {
+        return holding;
+    }
+
+    /** Hold an event scheduled while groups run
+     *  @param t, kind, a, b, act -- the event
+     */
+    static void hold(
+            double t, int kind, int a, long b, Simulator.Action act
+    ) {
+        held.get().add( t, kind, a, b, act );
+    }
+
+    /** Add a movement to the burst
+     *  @param kind -- Simulator.GO or Simulator.GO_HOME
+     *  @param a, b -- its operands
+     */
+    static void add( int kind, int a, long b ) {
+        if (size == kinds.length) { // grow, doubling the size
+            kinds = Arrays.copyOf( kinds, 2 * size );
+            as = Arrays.copyOf( as, 2 * size );
+            bs = Arrays.copyOf( bs, 2 * size );
+        }
+        kinds[size] = kind;
+        as[size] = a;
+        bs[size] = b;
+        size = size + 1;
+    }
+
+    /** Dispatch the burst, and empty it
+     *  @param time -- the time of all its movements
+     */
+    static void run( double time ) {
+        final int n = size;
+        size = 0;
+        if (n < minimum) { // not worth it
+            for (int i = 0; i < n; i++) {
+                Simulator.dispatch( time, kinds[i], as[i], bs[i], null );
+            }
+            return;
+        }
+
+        group( time, n );
+
+        // run the groups, holding what they schedule
+        next.set( 0 );
+        holding = true;
+        if (pool == null) {
+            work( time );
+        } else {
+            final ArrayList<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                tasks.add( ()-> {
+                    work( time );
+                    return null;
+                } );
+            }
+            try {
+                for (Future<Void> f: pool.invokeAll( tasks )) f.get();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( e );
+            } catch ( ExecutionException e ) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                throw new RuntimeException( e.getCause() );
+            }
+        }
+        holding = false;
+
+        // then schedule it all, group by group
+        for (int g = 0; g < groups; g++) {
+            final Held h = heldBy[g];
+            for (int i = heldFrom[g]; i < heldTo[g]; i++) {
+                if (h.acts[i] != null) {
+                    Simulator.schedule( h.times[i], h.acts[i] );
+                    h.acts[i] = null; // don't hold on to actions
+                } else {
+                    Simulator.schedule(
+                            h.times[i], h.kinds[i], h.as[i], h.bs[i]
+                    );
+                }
+            }
+            h.size = 0; // for the next burst, later groups still read it
+            heldBy[g] = null;
+        }
+    }
+
+    /** Run groups until none are left
+     *  @param time -- the time of the burst
+     */
+    private static void work( double time ) {
+        final Held h = held.get();
+        int g = next.getAndIncrement();
+        while (g < groups) {
+            heldFrom[g] = h.size;
+            for (int i = starts[g]; i < starts[g + 1]; i++) {
+                final int m = members[i];
+                Simulator.dispatch( time, kinds[m], as[m], bs[m], null );
+            }
+            heldTo[g] = h.size;
+            heldBy[g] = h;
+            g = next.getAndIncrement();
+        }
+    }
+
+    /** Put the movements of the burst in groups that share no places
+     *  @param time -- the time of the burst
+     *  @param n -- how many movements
+     */
+    private static void group( double time, int n ) {
+        final int places = Place.count();
+        if (parents.length < places) {
+            parents = new int[ places ];
+            stamps = new int[ places ];
+            groupOfRoot = new int[ places ];
+            groupStamps = new int[ places ];
+        }
+        if (groupOf.length < n) {
+            groupOf = new int[ n ];
+            members = new int[ n ];
+            starts = new int[ n + 1 ];
+            heldBy = new Held[ n ];
+            heldFrom = new int[ n ];
+            heldTo = new int[ n ];
+        }
+        burst = burst + 1;
+
+        // first, join the place each person leaves to the one they enter
+        for (int i = 0; i < n; i++) {
+            final Person p = Person.byIndex( as[i] );
+            final Place to = (kinds[i] == Simulator.GO)
+                    ? p.visitPlace( (int)bs[i] )
+                    : p.home();
+            final int r = root( p.whereAt( time ).id );
+            final int s = root( to.id );
+            if (r != s) parents[ Math.max( r, s ) ] = Math.min( r, s );
+        }
+
+        // second, number the groups in order of their first movements
+        groups = 0;
+        Arrays.fill( starts, 0, n + 1, 0 );
+        for (int i = 0; i < n; i++) {
+            final int q = root( Person.byIndex( as[i] ).whereAt( time ).id );
+            if (groupStamps[q] != burst) {
+                groupStamps[q] = burst;
+                groupOfRoot[q] = groups;
+                groups = groups + 1;
+            }
+            groupOf[i] = groupOfRoot[q];
+            starts[ groupOf[i] + 1 ] = starts[ groupOf[i] + 1 ] + 1;
+        }
+
+        // finally, list the members of each group, counting sort
+        for (int g = 0; g < groups; g++) {
+            starts[g + 1] = starts[g + 1] + starts[g];
+        }
+        final int[] fill = Arrays.copyOf( starts, groups );
+        for (int i = 0; i < n; i++) {
+            members[ fill[ groupOf[i] ] ] = i;
+            fill[ groupOf[i] ] = fill[ groupOf[i] ] + 1;
+        }
+    }
+
+    /** Find the root of a place in the union-find forest
+     *  @param q -- the id of the place
+     *  @return the id of the root, halving the path on the way
+     */
+    private static int root( int q ) {
+        if (stamps[q] != burst) { // first seen in this burst
+            stamps[q] = burst;
+            parents[q] = q;
+            return q;
+        }
+        while (parents[q] != q) {
+            parents[q] = parents[ parents[q] ];
+            q = parents[q];
+        }
+        return q;
+    }
+}
@@ -0,0 +1,68 @@
+// Parameters.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/** Overrides for numeric parameters of the model file
+ *  @see Sweep for the main user of this
+ *  Parameters that can be overridden are named as follows:
+ *  <pre>
+ *    transmissivity.K   -- transmissivity per hour of place kind K
+ *    latent.median      -- median of the latent time, in days, also
+ *                          asymptomatic.median, symptomatic.median
+ *                          and bedridden.median
+ *    probability.R.K    -- probability that role R follows its schedule
+ *                          for place kind K
+ *  </pre>
+ *  Each override replaces the value given in the model file.
+ *  An override that the model never asks for is an error, see checkUsed,
+ *  since it is almost certainly a misspelled name.
+ */
+class Parameters {
+    private Parameters() {} // nobody should ever construct Parameters
+
+    // the current overrides, by name
+    private static final HashMap<String,Double> overrides = new HashMap<>();
+
+    // the names asked for since the overrides were set
+    private static final HashSet<String> used = new HashSet<>();
+
+    /** Replace all overrides
+     *  @param p -- the new overrides, by name
+     */
+    public static void set( Map<String,Double> p ) {
+        overrides.clear();
+        overrides.putAll( p );
+        used.clear();
+    }
+
+    /** Get the value of a parameter
+     *  @param name -- the name of the parameter
+     *  @param value -- the value given in the model
+     *  @return the override for name, if any, otherwise the value
+     */
+    public static double get( String name, double value ) {
+        used.add( name );
+        Double v = overrides.get( name );
+        return (v == null) ? value : v;
+    }
+
+    /** Complain about overrides the model never asked for
+     *  This must follow reading the model, which asks for every parameter
+     *  it has; it never returns if some override was not asked for.
+     */
+    public static void checkUsed() {
+        String unused = "";
+        for (String name: overrides.keySet()) {
+            if (!used.contains( name )) unused = unused + " " + name;
+        }
+        if (!unused.isEmpty()) {
+            Error.fatal( "parameters not in the model:" + unused );
+        }
+    }
+}
@@ -0,0 +1,185 @@
+// Partition.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.PrintStream;
+
+/** Division of places into partitions that people rarely move between
+ *  @see Distributed for the main user of this
+ *  @see PlaceGraph for the graph partitioned
+ *  A person belongs to the partition of their home, so every visit along
+ *  a cut edge is a person moving between partitions.
+ *  The weight of a partition is the sum of the loads of its places.
+ *
+ *  Places are first dealt out in breadth first order, filling each
+ *  partition in turn, so that neighbouring places start out together.
+ *  Then label propagation moves each place to the partition it has the
+ *  most edge weight to, as long as that partition stays under capacity,
+ *  until nothing moves.
+ *  This must be done after all people are put in their places.
+ */
+class Partition {
+    private Partition() {} // nobody should ever construct a Partition
+
+    /** how far above the average weight a partition may grow */
+    public static final double imbalance = 0.05;
+
+    /** the most rounds of label propagation */
+    public static final int rounds = 20;
+
+    // the graph partitioned by the latest compute
+    private static PlaceGraph graph = null;
+
+    /** Partition the places
+     *  @param k -- the number of partitions
+     *  @return the partition of each place, by Place.id, from 0 to k-1
+     */
+    public static int[] compute( int k ) {
+        graph = new PlaceGraph();
+        final int[] start = graph.start;
+        final int[] neighbour = graph.neighbour;
+        final int[] weight = graph.weight;
+        final int[] load = graph.load;
+        final int places = graph.places();
+        final int[] part = new int[ places ];
+        final long[] partLoad = new long[ k ];
+
+        long total = 0;
+        for (int q = 0; q < places; q++) total = total + load[q];
+        final long capacity = (long)Math.ceil( (1 + imbalance) * total / k );
+
+        // first, deal places out in breadth first order
+        final int[] queue = new int[ places ];
+        final boolean[] seen = new boolean[ places ];
+        int head = 0;
+        int tail = 0;
+        int p = 0;        // the partition being filled
+        long filled = 0;  // the weight dealt out so far
+        for (int root = 0; root < places; root++) {
+            if (seen[root]) continue;
+            seen[root] = true;
+            queue[tail] = root;
+            tail = tail + 1;
+            while (head < tail) {
+                final int q = queue[head];
+                head = head + 1;
+                while ((p < k - 1) && (filled >= (total * (p + 1)) / k)) {
+                    p = p + 1;
+                }
+                part[q] = p;
+                partLoad[p] = partLoad[p] + load[q];
+                filled = filled + load[q];
+                for (int j = start[q]; j < start[q + 1]; j++) {
+                    if (!seen[neighbour[j]]) {
+                        seen[neighbour[j]] = true;
+                        queue[tail] = neighbour[j];
+                        tail = tail + 1;
+                    }
+                }
+            }
+        }
+
+        // then move places to where most of their edges go
+        final long[] connection = new long[ k ]; // edge weight to each part
+        final int[] touched = new int[ k ];      // parts with connections
+        for (int round = 0; round < rounds; round++) {
+            int moves = 0;
+            for (int q = 0; q < places; q++) {
+                int n = 0;
+                for (int j = start[q]; j < start[q + 1]; j++) {
+                    final int l = part[neighbour[j]];
+                    if (connection[l] == 0) {
+                        touched[n] = l;
+                        n = n + 1;
+                    }
+                    connection[l] = connection[l] + weight[j];
+                }
+
+                final int mine = part[q];
+                int best = mine;
+                for (int i = 0; i < n; i++) {
+                    final int l = touched[i];
+                    if ((connection[l] > connection[best])
+                            && (partLoad[l] + load[q] <= capacity)
+                    ) {
+                        best = l;
+                    }
+                }
+                for (int i = 0; i < n; i++) connection[touched[i]] = 0;
+
+                if (best != mine) {
+                    partLoad[mine] = partLoad[mine] - load[q];
+                    partLoad[best] = partLoad[best] + load[q];
+                    part[q] = best;
+                    moves = moves + 1;
+                }
+            }
+            if (moves == 0) break;
+        }
+
+        return part;
+    }
+
+    /** Report the quality of a partition
+     *  @param part -- the partition of each place, as returned by compute
+     *  @param k -- the number of partitions
+     *  @param o -- where the report goes
+     *  Must follow compute, it uses the graph built there.
+     */
+    public static void printStatistics( int[] part, int k, PrintStream o ) {
+        final int[] start = graph.start;
+        final int[] neighbour = graph.neighbour;
+        final int[] weight = graph.weight;
+        final int[] load = graph.load;
+        long cut = 0;
+        long total = 0;
+        for (int q = 0; q < part.length; q++) {
+            for (int j = start[q]; j < start[q + 1]; j++) {
+                total = total + weight[j];
+                if (part[neighbour[j]] != part[q]) cut = cut + weight[j];
+            }
+        }
+        cut = cut / 2; // every edge was counted from both ends
+        total = total / 2;
+
+        final long[] partLoad = new long[ k ];
+        long sum = 0;
+        for (int q = 0; q < part.length; q++) {
+            partLoad[part[q]] = partLoad[part[q]] + load[q];
+            sum = sum + load[q];
+        }
+        long heaviest = 0;
+        for (long l: partLoad) heaviest = Math.max( heaviest, l );
+
+        o.println( "partitions " + k + ", places " + part.length
+                + ", visits cut " + cut + " of " + total
+                + String.format( " (%.1f%%)",
+                        (total == 0) ? 0.0 : (100.0 * cut) / total )
+                + String.format( ", imbalance %.3f",
+                        (sum == 0) ? 1.0 : ((double)heaviest * k) / sum )
+        );
+    }
+
+    /** Output the partition of each place in CSV format
+     *  @param part -- the partition of each place, as returned by compute
+     *  @param o -- where the output goes
+     */
+    public static void print( int[] part, PrintStream o ) {
+        o.println( "place,kind,partition" );
+        for (int q = 0; q < part.length; q++) {
+            o.print( Integer.toString( q ) );
+            o.print( "," );
+            o.print( Place.byIndex( q ).kind.name );
+            o.print( "," );
+            o.println( Integer.toString( part[q] ) );
+        }
+    }
+
+    /** Forget the graph, ready for a new model
+     */
+    public static void reset() {
+        graph = null;
+    }
+}
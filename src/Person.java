@@ -4,7 +4,10 @@
  * version Apr. 11, 2021 Lifted from Epidemic.java
  */
 
-import java.util.LinkedList;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** People are the central actors in the simulation
  *  @see Role for the roles people play
@@ -41,10 +44,58 @@ class Person {
         bedridden = b;
     }
 
+    // sparse activation, see setSparse
+    private static boolean sparse = false;
+
+    /** Select sparse activation
+     *  @param s -- true to only simulate the movement of people who matter
+     *  In sparse mode, a person's movement is simulated only while they are
+     *  contagious or some place they visit has contagious occupants.
+     *  Everyone else is lazy; where they are is derived from their schedules
+     *  when needed, see whereAt.
+     *  This must be set before people are put in places.
+     */
+    public static void setSparse( boolean s ) {
+        sparse = s;
+    }
+
+    /** Is sparse activation selected
+     *  @return true if so
+     */
+    public static boolean isSparse() {
+        return sparse;
+    }
+
+    // ever infected count that ends the fast start, 0 if none
+    private static int fastStart = 0;
+
+    /** Select a fast start
+     *  @param n -- how many people must be infected to end the fast start
+     *  A fast start is sparse activation until n people have ever been
+     *  infected, at which point everyone starts moving, see densify.
+     *  While the outbreak is small, only the infected and the people
+     *  they might meet are simulated, so the long early phase, in which
+     *  the outbreak often dies out, costs almost nothing.
+     *  This must be set before people are put in places.
+     */
+    public static void setFastStart( int n ) {
+        fastStart = n;
+        sparse = true;
+    }
+
+    /** End sparse activation, simulating everyone's movement from now on
+     *  @param time -- the current time
+     */
+    private static void densify( double time ) {
+        sparse = false;
+        for (Person p: allPeople) p.wake( time );
+    }
+
     // linkage from person to place involves a schedule
     private class PlaceSchedule {
         public Place place;
         public Schedule schedule;
+        public boolean followed; // does this person follow the schedule
         public PlaceSchedule( Place p, Schedule s ) {
             place = p;
             schedule = s;
@@ -52,18 +103,28 @@ class Person {
     }
 
     // instance variables created from model description
+    public int id;                // index in allPeople, see renumber
+    private final int key;        // creation order, keys MyRandom streams
     private final Role role;      // role of this person
     private Place home;           // this person's home place, set by emplace
-    private final LinkedList<PlaceSchedule> places = new LinkedList<>();
+    private final ArrayList<PlaceSchedule> places = new ArrayList<>();
 
     // instance variables that change as simulation progresses
     private DiseaseStates diseaseState = DiseaseStates.uninfected;
-    private Place location;	       // initialized by emplace
-    private double infectMeTime = 0.0; // time I will get infected
-    // for the above, the default 0.0 allows for infection at startup
+    private Place location;            // initialized by emplace, null if lazy
+    private int epoch = 0;             // bumped to abandon movement events
+    int slot;                          // index in location's occupants
+    private long infectMeTime = NEVER; // tick I will get infected, see Time
+    private int delays = 0;            // infection delays drawn, for keys
 
     // static variables used for all people
-    private static LinkedList<Person> allPeople = new LinkedList<Person>();
+    private static ArrayList<Person> allPeople = new ArrayList<Person>();
+
+    // infectMeTime of people with no infection pending
+    private static final long NEVER = Long.MAX_VALUE;
+
+    // people with an infection pending, see setInfectTime and Parallel
+    private static final AtomicInteger pending = new AtomicInteger();
     private static MyRandom rand = MyRandom.stream;
 
     /** Construct a new person to perform some role
@@ -73,27 +134,98 @@ class Person {
     public Person( Role r ) {
         role = r;
 
+        id = allPeople.size();
+        key = id; // unlike id, never renumbered, see draws
         allPeople.add( this ); // include this person in the list of all
 
         popByState[ diseaseState.ordinal() ]++;  // include it in the statistics
     };
 
+    /** Find a person by id
+     *  @param i -- the id of the person, people are numbered from zero
+     *  @return the person, or null if forgotten, see discard
+     */
+    public static Person byIndex( int i ) {
+        return allPeople.get( i );
+    }
+
+    /** Forget some people, who will never be seen here again
+     *  @param f -- selects the people to forget
+     *  Their ids are not reused, so byIndex returns null for them, and
+     *  events still pending for them are ignored, see Simulator.dispatch.
+     *  They must not be counted in the population statistics.
+     *  @see Distributed
+     */
+    static void discard( Progression.Filter f ) {
+        for (int i = 0; i < allPeople.size(); i++) {
+            if (f.test( allPeople.get( i ) )) allPeople.set( i, null );
+        }
+    }
+
+    /** Give all people new ids
+     *  @param newId -- the new id of each person, by old id
+     *  @see Renumber
+     */
+    static void renumber( int[] newId ) {
+        final Person[] reordered = new Person[ allPeople.size() ];
+        for (Person p: allPeople) {
+            p.id = newId[ p.id ];
+            reordered[ p.id ] = p;
+        }
+        allPeople.clear();
+        allPeople.addAll( Arrays.asList( reordered ) );
+    }
+
+    /** How many people are there
+     *  @return the count of all people, including any forgotten
+     */
+    public static int population() {
+        return allPeople.size();
+    }
+
+    /** Get the role of this person
+     *  @return the role
+     */
+    public Role role() {
+        return role;
+    }
+
     // methods used during model construction, at time 0.0
 
+    /** Is this person already associated with a place of some kind
+     *  @param pk -- the kind of place
+     *  @return true if this person has a home or other place of kind pk
+     */
+    public boolean hasPlaceOf( PlaceKind pk ) {
+        if ((home != null) && (home.kind == pk)) return true;
+        for (PlaceSchedule ps: places) {
+            if (ps.place.kind == pk) return true;
+        }
+        return false;
+    }
+
     /** Associate this person to a particular place
      *  @param p -- the place
      *  @param s -- the associated schedule
      */
     public void emplace( Place p, Schedule s ) {
         if (s != null) {
-            places.add( new PlaceSchedule( p, s ) );
-            s.apply( this, p ); // commit to following schedule s for place p
+            PlaceSchedule ps = new PlaceSchedule( p, s );
+            places.add( ps );
+            ps.followed = s.follow(
+                    MyRandom.stream( MyRandom.FOLLOW, key, places.size() - 1 )
+            );
+            if (ps.followed && !sparse) {
+                // commit to following s
+                s.start( 0.0, this, places.size() - 1, epoch );
+            }
         } else {
             assert home == null: "Role guarantees only one home place";
             home = p;
-            location = home;
-
-            location.arrive( 0.0, this ); // tell location about new occupant
+            if (!sparse) {
+                location = home;
+                location.arrive( 0.0, this ); // tell location about occupant
+            }
         }
     }
 
@@ -108,20 +240,175 @@ class Person {
                         && (diseaseState.compareTo( DiseaseStates.bedridden ) <= 0);
     }
 
+    /** Get the home of this person
+     *  @return the home place
+     */
+    public Place home() {
+        return home;
+    }
+
+    /** Get one of the places this person visits
+     *  @param visit -- which of this person's visits, as in go
+     *  @return the place
+     */
+    public Place visitPlace( int visit ) {
+        return places.get( visit ).place;
+    }
+
+    /** Tool for visiting the places a person visits on schedule
+     */
+    public interface Visit {
+        void visit( Place place, Schedule schedule );
+    }
+
+    /** Visit each place this person visits on a followed schedule
+     *  @param v -- what to do with each place and its schedule
+     */
+    public void forEachVisit( Visit v ) {
+        for (PlaceSchedule ps: places) {
+            if (ps.followed) v.visit( ps.place, ps.schedule );
+        }
+    }
+
+    /** Where do this person's schedules put them
+     *  @param time -- the time
+     *  @return the place given by the followed schedules, or home if none
+     *  This ignores what actually happened, for example going to bed,
+     *  but not visits to places closed when they started, see Intervention.
+     */
+    public Place scheduledAt( double time ) {
+        for (PlaceSchedule ps: places) {
+            if (ps.followed && ps.schedule.contains( time )
+                    && !ps.place.isClosedAt( ps.schedule.visitStart( time ) )
+            ) {
+                return ps.place;
+            }
+        }
+        return home;
+    }
+
+    /** Where is this person
+     *  @param time -- the current time
+     *  @return the place where this person is
+     *  For lazy people in sparse mode, this is derived from their schedules.
+     */
+    public Place whereAt( double time ) {
+        if (location != null) return location;
+        return scheduledAt( time );
+    }
+
+    /** Must this person's movement be simulated
+     *  @return true if contagious or some place this person visits is
+     */
+    private boolean mustMove() {
+        if (isContagious() || home.isHot()) return true;
+        for (PlaceSchedule ps: places) {
+            if (ps.place.isHot()) return true;
+        }
+        return false;
+    }
+
     // simulation of behavior
 
+    /** Start simulating this person's movement
+     *  @param time -- the current time
+     *  In sparse mode, this puts a lazy person where their schedules say
+     *  and starts them following their schedules.
+     */
+    public void wake( double time ) {
+        if ((location != null) || (diseaseState == DiseaseStates.dead)) return;
+        epoch = epoch + 1;
+        location = whereAt( time );
+        location.arrive( time, this );
+        for (int visit = 0; visit < places.size(); visit++) {
+            PlaceSchedule ps = places.get( visit );
+            if (ps.followed) ps.schedule.start( time, this, visit, epoch );
+        }
+    }
+
+    /** Should a movement event for this person proceed
+     *  @param time -- the current time
+     *  @param epoch -- the epoch when the event was scheduled
+     *  @return true if so, false if the event should be abandoned
+     *  In sparse mode, people that no longer need to move become lazy.
+     */
+    public boolean keepMoving( double time, int epoch ) {
+        if (epoch != this.epoch) return false; // this event was abandoned
+        if (diseaseState == DiseaseStates.dead) return false;
+        if (sparse && !mustMove()) { // become lazy
+            location.depart( time, this );
+            location = null;
+            this.epoch = this.epoch + 1; // abandon all pending movement
+            return false;
+        }
+        return true;
+    }
+
+    /** Can this person be infected?
+     *  @returns true if they can
+     */
+    public boolean isSusceptible() {
+        return diseaseState == DiseaseStates.uninfected;
+    }
+
+    /** The stream for a decision about this person's disease
+     *  @param decision -- MyRandom.DURATION or MyRandom.RECOVER
+     *  @return the stream for the decision in the current disease state
+     *  Streams are keyed by creation order, not by id: Renumber orders ids
+     *  by who meets whom, which differs between runs that follow different
+     *  schedules, and each person must draw the same numbers in both.
+     */
+    private MyRandom draws( int decision ) {
+        return MyRandom.stream( decision, key, diseaseState.ordinal() );
+    }
+
+    /** Draw a uniform for this person's next infection delay
+     *  @return a uniform from 0 to 1, see MyRandom.stream
+     *  @see Place#contagious for how it becomes a delay
+     */
+    double delayUniform() {
+        delays = delays + 1;
+        return MyRandom.stream( MyRandom.DELAY, key, delays - 1 ).nextDouble();
+    }
+
     /** Schedule the time at which a person will be infected
      *  @param time -- the current time
      *  @param meanDelay -- the delay until infection
      */
     public void scheduleInfect( double time, double meanDelay ) {
         if (diseaseState == DiseaseStates.uninfected) { // irrelevant if not
-            double delay = rand.nextExponential( meanDelay );
-            infectMeTime = time + delay;
-            Simulator.schedule( infectMeTime, (double t)-> infect( t ) );
+            infectAt( time + MyRandom.stream(
+                    MyRandom.DELAY, key, delays++
+            ).nextExponential( meanDelay ) );
         }
     }
 
+    /** Set the time at which a susceptible person will be infected
+     *  @param when -- the time of infection
+     *  This replaces any previously scheduled infection.
+     */
+    void infectAt( double when ) {
+        setInfectTime( Time.toTicks( when ) );
+        Simulator.schedule( when, Simulator.INFECT, id, 0 );
+    }
+
+    /** Cancel any scheduled infection of this person
+     */
+    void cancelInfect() {
+        setInfectTime( NEVER ); // matches no infect event
+    }
+
+    /** Set the tick this person will be infected, counting those pending
+     *  @param t -- the tick, or NEVER
+     *  People who leave a place keep any infection drawn there, so the
+     *  count, not the census alone, tells if the epidemic is over.
+     */
+    private void setInfectTime( long t ) {
+        if ((infectMeTime == NEVER) && (t != NEVER)) pending.incrementAndGet();
+        if ((infectMeTime != NEVER) && (t == NEVER)) pending.decrementAndGet();
+        infectMeTime = t;
+    }
+
     /** Infect this person
      *  @param now -- the time of infection
      *  This may be called on a person in any infection state and makes the
@@ -129,21 +416,42 @@ class Person {
      *  This is a schedulable event service routine
      */
     public void infect( double now ) {
-        if (   (diseaseState == DiseaseStates.uninfected) // no reinfection
-                && (infectMeTime == now)                      // if not rescheduled
+        final boolean due = infectMeTime == Time.toTicks( now );
+        if (due) setInfectTime( NEVER ); // no longer pending, either way
+        if ((diseaseState == DiseaseStates.uninfected) // no reinfection
+                && due                                  // if not rescheduled
         ) {
-            final double duration = latent.duration();
+            if (!Distributed.isLocal( home )) { // a ghost, see Distributed
+                diseaseState = DiseaseStates.latent; // not counted here
+                Distributed.infect( this ); // its own shard does the rest
+                susceptibilityLost( now );
+                return;
+            }
+
+            final double duration
+                    = latent.duration( draws( MyRandom.DURATION ) );
 
             // update statistics
             popByState[ diseaseState.ordinal() ]--;
             diseaseState = DiseaseStates.latent;
             popByState[ diseaseState.ordinal() ]++;
+            susceptibilityLost( now );
+
+            if ((fastStart > 0) && (allPeople.size()
+                    - popByState[ DiseaseStates.uninfected.ordinal() ]
+                    >= fastStart)
+            ) { // the outbreak is big enough to end the fast start
+                fastStart = 0;
+                Simulator.schedule( now, (double t)-> densify( t ) );
+            }
 
-            if (latent.recover()) {
-                Simulator.schedule( now + duration, (double t)-> recover( t ) );
+            if (latent.recover( draws( MyRandom.RECOVER ) )) {
+                Progression.schedule(
+                        now + duration, this, Progression.RECOVER
+                );
             } else {
-                Simulator.schedule(
-                        now + duration, (double t)-> beContagious( t )
+                Progression.schedule(
+                        now + duration, this, Progression.BE_CONTAGIOUS
                 );
             }
         }
@@ -157,7 +465,8 @@ class Person {
      */
     public void beContagious( double time ) {
         assert diseaseState == DiseaseStates.latent : "not latent";
-        final double duration = asymptomatic.duration();
+        final double duration
+                = asymptomatic.duration( draws( MyRandom.DURATION ) );
 
         // update statistics
         popByState[ diseaseState.ordinal() ]--;
@@ -165,12 +474,20 @@ class Person {
         popByState[ diseaseState.ordinal() ]++;
 
         // tell place that I'm sick
-        if (location != null) location.contagious( time, +1 );
+        if (location != null) {
+            contagionChanged( time, +1 );
+        } else if (sparse) {
+            wake( time ); // arriving tells the place that I'm sick
+        }
 
-        if (asymptomatic.recover()) {
-            Simulator.schedule( time + duration, (double t)-> recover( t ) );
+        if (asymptomatic.recover( draws( MyRandom.RECOVER ) )) {
+            Progression.schedule(
+                    time + duration, this, Progression.RECOVER
+            );
         } else {
-            Simulator.schedule( time + duration, (double t)-> feelSick( t ) );
+            Progression.schedule(
+                    time + duration, this, Progression.FEEL_SICK
+            );
         }
     }
 
@@ -182,17 +499,22 @@ class Person {
      */
     public void feelSick( double time ) {
         assert diseaseState == DiseaseStates.asymptomatic: "not asymptomatic";
-        final double duration = symptomatic.duration();
+        final double duration
+                = symptomatic.duration( draws( MyRandom.DURATION ) );
 
         // update statistics
         popByState[ diseaseState.ordinal() ]--;
         diseaseState = DiseaseStates.symptomatic;
         popByState[ diseaseState.ordinal() ]++;
 
-        if (symptomatic.recover()) {
-            Simulator.schedule( time + duration, (double t)-> recover( t ) );
+        if (symptomatic.recover( draws( MyRandom.RECOVER ) )) {
+            Progression.schedule(
+                    time + duration, this, Progression.RECOVER
+            );
         } else {
-            Simulator.schedule( time + duration, (double t)-> goToBed( t ) );
+            Progression.schedule(
+                    time + duration, this, Progression.GO_TO_BED
+            );
         }
     }
 
@@ -204,17 +526,22 @@ class Person {
      */
     public void goToBed( double time ) {
         assert diseaseState == DiseaseStates.symptomatic: "not symptomatic";
-        final double duration = bedridden.duration();
+        final double duration
+                = bedridden.duration( draws( MyRandom.DURATION ) );
 
         // update statistics
         popByState[ diseaseState.ordinal() ]--;
         diseaseState = DiseaseStates.bedridden;
         popByState[ diseaseState.ordinal() ]++;
 
-        if (symptomatic.recover()) {
-            Simulator.schedule( time + duration, (double t)-> recover( t ) );
+        if (symptomatic.recover( draws( MyRandom.RECOVER ) )) {
+            Progression.schedule(
+                    time + duration, this, Progression.RECOVER
+            );
         } else {
-            Simulator.schedule( time + duration, (double t)-> die( t ) );
+            Progression.schedule(
+                    time + duration, this, Progression.DIE
+            );
         }
     }
 
@@ -225,12 +552,16 @@ class Person {
      *  This is a schedulable event service routine
      */
     public void recover( double time ) {
+        final boolean wasContagious = isContagious();
+
         // update statistics
         popByState[ diseaseState.ordinal() ]--;
         diseaseState = DiseaseStates.recovered;
         popByState[ diseaseState.ordinal() ]++;
 
-        if (location != null) location.contagious( time, -1 );
+        if (wasContagious && (location != null)) {
+            contagionChanged( time, -1 );
+        }
     }
 
     /** This person dies
@@ -247,18 +578,30 @@ class Person {
         popByState[ diseaseState.ordinal() ]++;
 
         if (location != null) {
-            location.depart( time, this );
+            leave( time );
         }
 
         // no new event is scheduled.
     }
 
+    /** Tell this person to make one of their scheduled visits
+     *  @param time
+     *  @param visit -- which of this person's visits
+     *  @param epoch -- the movement epoch when this was scheduled
+     *  This is a schedulable event service routine.
+     */
+    public void go( double time, int visit, int epoch ) {
+        PlaceSchedule ps = places.get( visit );
+        ps.schedule.go( time, this, visit, ps.place, epoch );
+    }
+
     /** Tell this person to go home at this time
      *  @param time
+     *  @param epoch -- the movement epoch when this was scheduled
      *  This is a schedulable event service routine.
      */
-    public void goHome( double time ) {
-        travelTo( time, home );
+    public void goHome( double time, int epoch ) {
+        if (keepMoving( time, epoch )) travelTo( time, home );
     }
 
     /** Tell this person to go somewhere
@@ -269,50 +612,275 @@ class Person {
      */
     public void travelTo( double time, Place place ) {
         if ((diseaseState != DiseaseStates.bedridden) || (place == home)) {
-            location.depart( time, this );
+            leave( time );
             location = place;
+            enter( time );
+        }
+    }
+
+    // places owned by other shards, see Distributed
+
+    /** Leave this person's location
+     *  @param time
+     */
+    private void leave( double time ) {
+        if (Distributed.isLocal( location )) {
+            location.depart( time, this );
+        } else {
+            Distributed.depart( this, location );
+        }
+    }
+
+    /** Enter this person's location
+     *  @param time
+     */
+    private void enter( double time ) {
+        if (Distributed.isLocal( location )) {
             location.arrive( time, this );
+        } else {
+            Distributed.arrive( this, location );
+        }
+    }
+
+    /** Tell this person's location that they changed contagion state
+     *  @param time
+     *  @param c -- +1 if they became contagious, -1 if they stopped
+     */
+    private void contagionChanged( double time, int c ) {
+        if (Distributed.isLocal( location )) {
+            location.contagious( time, c );
+        } else {
+            Distributed.changed( this, location );
+        }
+    }
+
+    /** Tell this person's location that they are no longer susceptible
+     *  @param time
+     */
+    private void susceptibilityLost( double time ) {
+        if (location == null) return;
+        if (Distributed.isLocal( location )) {
+            location.notSusceptible( time );
+        } else {
+            Distributed.changed( this, location );
+        }
+    }
+
+    /** Get this person's disease state, for messages between shards
+     *  @return the state, as an ordinal
+     */
+    int state() {
+        return diseaseState.ordinal();
+    }
+
+    /** This person is simulated by another shard
+     *  Ghosts are not counted in the population statistics and do not
+     *  move on their own; they only appear in places owned by this shard
+     *  when their shard says they arrive.
+     */
+    void becomeGhost() {
+        popByState[ diseaseState.ordinal() ]--;
+        if (location != null) {
+            location.depart( 0.0, this );
+            location = null;
+        }
+        epoch = epoch + 1; // abandon all pending movement
+        cancelInfect(); // drawn at home, so its own shard does it
+    }
+
+    /** A ghost arrives at a place owned by this shard
+     *  @param time
+     *  @param place
+     *  @param state -- the ghost's disease state
+     */
+    void ghostArrives( double time, Place place, int state ) {
+        diseaseState = DiseaseStates.values()[ state ];
+        location = place;
+        location.arrive( time, this );
+    }
+
+    /** A ghost departs from a place owned by this shard
+     *  @param time
+     *  @param place
+     */
+    void ghostDeparts( double time, Place place ) {
+        assert location == place: "ghost not here";
+        location.depart( time, this );
+        location = null;
+        cancelInfect();
+    }
+
+    /** A ghost changes contagion state while here
+     *  @param time
+     *  @param state -- the ghost's new disease state
+     */
+    void ghostChanges( double time, int state ) {
+        final boolean wasContagious = isContagious();
+        final boolean wasSusceptible = isSusceptible();
+        diseaseState = DiseaseStates.values()[ state ];
+        if (location == null) return;
+        if (wasContagious != isContagious()) {
+            location.contagious( time, wasContagious ? -1 : +1 );
+        }
+        if (wasSusceptible && !isSusceptible()) location.notSusceptible( time );
+    }
+
+    /** Infect this person now, if they are susceptible
+     *  @param time -- the current time
+     *  Used when the time of infection was not chosen by this person,
+     *  for example in a crowd or on another shard.
+     */
+    void infectNow( double time ) {
+        if (diseaseState == DiseaseStates.uninfected) {
+            setInfectTime( Time.toTicks( time ) );
+            infect( time );
         }
     }
 
     // reporting tools
 
+    // where reports go
+    private static PrintStream out = System.out;
+
+    /** Send reports somewhere other than System.out
+     *  @param o -- where reports should go
+     */
+    public static void setOutput( PrintStream o ) {
+        out = o;
+    }
+
+    // reports stop at this time, see startReporting
+    private static double endOfReports = Double.POSITIVE_INFINITY;
+
      /**
      * Reports in CSV format
      * @param headline whether or not to include a headline
+     * @param end the end of time, no reports are made at or after it
      */
-    public static void startReporting (boolean headline) {
-        if (headline) {
-            System.out.print("time");
-            for (DiseaseStates s: DiseaseStates.values()) {
-                System.out.print(",");
-                System.out.print(s.name());
+    public static void startReporting (boolean headline, double end) {
+        if (headline) printHeadline( out );
+        endOfReports = end;
+        Simulator.addLifecycle( new Simulator.Lifecycle() {
+            public void flush() {
+                out.flush();
             }
-            System.out.println();
-        }
+        } );
         //schedule first report
-        Simulator.schedule(0.0, (double t)-> Person.report(t));
+        Simulator.schedule(0.0, Simulator.REPORT, 0, 0);
+    }
+
+    /** Output the headline of the CSV report
+     *  @param o -- where the report goes
+     */
+    static void printHeadline( PrintStream o ) {
+        o.print("time");
+        for (DiseaseStates s: DiseaseStates.values()) {
+            o.print(",");
+            o.print(s.name());
+        }
+        o.println();
+    }
+
+    /** Get the names of the disease states
+     *  @return the names, in the order used by census
+     */
+    public static String[] stateNames() {
+        String[] names = new String[ popByState.length ];
+        for (DiseaseStates s: DiseaseStates.values()) {
+            names[ s.ordinal() ] = s.name();
+        }
+        return names;
+    }
+
+    /** Get the population statistics
+     *  @return a copy of the number of people in each disease state
+     */
+    public static int[] census() {
+        return popByState.clone();
+    }
+
+    /** Is the epidemic over
+     *  @return true if nobody is latent or contagious and nobody has an
+     *          infection pending
+     *  Once this is true, the population statistics can never change again.
+     */
+    public static boolean epidemicOver() {
+        return (pending.get() == 0) && epidemicOver( popByState );
+    }
+
+    /** How many people have an infection pending
+     *  @return the count, see epidemicOver
+     */
+    static int pendingInfections() {
+        return pending.get();
+    }
+
+    /** Is the epidemic over, as far as a census can tell
+     *  @param census -- population statistics, as returned by census
+     *  @return true if nobody is latent or contagious
+     *  People with an infection pending can still start it again, so this
+     *  alone is not enough, see epidemicOver.
+     */
+    static boolean epidemicOver( int[] census ) {
+        for (int i = DiseaseStates.latent.ordinal();
+                i <= DiseaseStates.bedridden.ordinal(); i++
+        ) {
+            if (census[i] > 0) return false;
+        }
+        return true;
     }
-    
+
     /** Report population statistics at the given time
      *  @param time
      *  Intended to be scheduled as an event at time zero, initiates a
      *  sequence of daily reporting events.
      *  Each report is a CSV line giving the time and the population
      *  for each disease state.
+     *  Once the epidemic is over, the remaining reports up to the end of
+     *  time are all output at once and the simulation is stopped.
+     *  Shards of a distributed run send their reports to the coordinator,
+     *  which decides when the epidemic is over, see Distributed.
      */
     public static void report( double time ) {
-        System.out.print( Double.toString( time/Time.day ) );
-        for (int i = 0; i <= DiseaseStates.dead.ordinal(); i++ ) {
-            System.out.print( "," );
-            System.out.print( Integer.toString( popByState[i] ) );
+        if (Distributed.isShard()) { // the coordinator adds up all shards
+            Distributed.report( time, popByState, pending.get() );
+        } else {
+            printReport( time );
+
+            if (epidemicOver()) { // nothing will change, so fast forward
+                for (double t = time + 24*Time.hour; t < endOfReports;
+                        t = t + 24*Time.hour
+                ) {
+                    printReport( t );
+                }
+                Simulator.stop();
+                return;
+            }
         }
-        System.out.println();
 
         // schedule the next report
-        Simulator.schedule( time + 24*Time.hour,
-                (double t)-> Person.report( t )
-        );
+        Simulator.schedule( time + 24*Time.hour, Simulator.REPORT, 0, 0 );
+    }
+
+    /** Output one line of the CSV report
+     *  @param time
+     */
+    private static void printReport( double time ) {
+        printReport( out, time, popByState );
+    }
+
+    /** Output one line of the CSV report
+     *  @param o -- where the report goes
+     *  @param time
+     *  @param census -- population statistics, as returned by census
+     */
+    static void printReport( PrintStream o, double time, int[] census ) {
+        o.print( Double.toString( time/Time.day ) );
+        for (int i = 0; i <= DiseaseStates.dead.ordinal(); i++ ) {
+            o.print( "," );
+            o.print( Integer.toString( census[i] ) );
+        }
+        o.println();
     }
 
     /** Print out the entire population
@@ -321,6 +889,8 @@ class Person {
      */
     public static void printAll() {
         for (Person p: allPeople) {
+            if (p == null) continue; // forgotten, see discard
+
             // line 1: person id and role
             System.out.print( p.toString() );
             System.out.print( " " );
@@ -344,4 +914,90 @@ class Person {
             }
         }
     }
+
+    /** The changing state of all people, as saved by save
+     */
+    static class Saved {
+        private final byte[] states;
+        private final Place[] locations;
+        private final int[] epochs;
+        private final long[] infectMeTimes;
+        private final int[] delays;
+        private final int[] popByState;
+        private final boolean sparse;
+        private final int fastStart;
+
+        private Saved() {
+            int n = 0;
+            for (Person p: allPeople) {
+                if (p != null) n = n + 1;
+            }
+            states = new byte[ n ];
+            locations = new Place[ n ];
+            epochs = new int[ n ];
+            infectMeTimes = new long[ n ];
+            delays = new int[ n ];
+            int i = 0; // people forgotten, see discard, are skipped
+            for (Person p: allPeople) {
+                if (p == null) continue;
+                states[i] = (byte)p.diseaseState.ordinal();
+                locations[i] = p.location;
+                epochs[i] = p.epoch;
+                infectMeTimes[i] = p.infectMeTime;
+                delays[i] = p.delays;
+                i = i + 1;
+            }
+            popByState = Person.popByState.clone();
+            sparse = Person.sparse;
+            fastStart = Person.fastStart;
+        }
+    }
+
+    /** Save the changing state of all people
+     *  @return the saved state, see restore
+     *  Where people sit among the occupants of places is saved by Place.
+     *  @see TimeWarp
+     */
+    static Saved save() {
+        return new Saved();
+    }
+
+    /** Put the changing state of all people back as it was saved
+     *  @param s -- the saved state, which may be restored again later
+     */
+    static void restore( Saved s ) {
+        final DiseaseStates[] states = DiseaseStates.values();
+        int i = 0; // the people saved, in order, skipping those forgotten
+        int n = 0; // of those, the ones with an infection pending
+        for (Person p: allPeople) {
+            if (p == null) continue;
+            p.diseaseState = states[ s.states[i] ];
+            p.location = s.locations[i];
+            p.epoch = s.epochs[i];
+            p.infectMeTime = s.infectMeTimes[i];
+            p.delays = s.delays[i];
+            if (p.infectMeTime != NEVER) n = n + 1;
+            i = i + 1;
+        }
+        System.arraycopy( s.popByState, 0, popByState, 0, popByState.length );
+        pending.set( n );
+        sparse = s.sparse;
+        fastStart = s.fastStart;
+    }
+
+    /** Forget all people, ready for a new model
+     */
+    public static void reset() {
+        Arrays.fill( popByState, 0 );
+        allPeople.clear();
+        pending.set( 0 );
+        sparse = false;
+        fastStart = 0;
+        out = System.out;
+        endOfReports = Double.POSITIVE_INFINITY;
+        latent = null;
+        asymptomatic = null;
+        symptomatic = null;
+        bedridden = null;
+    }
 }
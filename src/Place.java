@@ -4,7 +4,8 @@
  * version Apr. 11, 2021 Lifted from Epidemic.java
  */
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /** Places that people are associate with and may occupy.
  *  Every place is an instance of some kind of PlaceKind
@@ -12,12 +13,42 @@ import java.util.LinkedList;
  */
 class Place {
     // instance variables fixed at creation
+    public int id;                       // index in allPlaces, see renumber
+    private final int key;               // creation order, keys MyRandom
     public final PlaceKind kind;         // what kind of place is this?
     private final double transmissivity; // how dangerous is it to stay here
 
+    // instance variables used only during model elaboration
+    int vacancy = 0;                     // unclaimed capacity, if explicit
+
+    // instance variables for hybrid mode, see findCrowds
+    private boolean crowd = false;       // simulated by aggregate counts
+    private int susceptibles = 0;        // susceptible occupants, if a crowd
+    private long draw = 0;               // bumped to abandon crowd events
+    private double drawnRate = 0.0;      // rate of the pending draw, if any
+    private boolean redrawing = false;   // a redraw is scheduled, see changed
+
     // instance variables that vary with circumstances
     private int contageous = 0;          // how many infectious people are here
-    private final LinkedList<Person> occupants = new LinkedList<>();
+    private Person[] occupants = new Person[ 4 ]; // see Person.slot
+    private int occupied = 0;            // occupants[0..occupied-1] are here
+
+    // instance variables for interventions on this place, see Intervention
+    private double[] closed = null;      // when, see Intervention.during
+    private double scale = 1.0;          // product of the factors of the rest
+
+    // static variables used for all places
+    private static final ArrayList<Place> allPlaces = new ArrayList<>();
+    private static int crowdSize = Integer.MAX_VALUE; // see setCrowdSize
+
+    // scratch space for contagion sweeps, grown to the largest sweep
+    // each thread has its own, see Parallel
+    private static class Sweep {
+        Person[] susceptible = new Person[ 64 ];
+        double[] delay = new double[ 64 ];
+    }
+    private static final ThreadLocal<Sweep> scratch
+            = ThreadLocal.withInitial( Sweep::new );
 
     /** Construct a new place
      *  @param k -- the kind of place
@@ -26,6 +57,110 @@ class Place {
     public Place( PlaceKind k, Double t ) {
         kind = k;
         transmissivity = t;
+        id = allPlaces.size();
+        key = id; // unlike id, never renumbered, so keyed draws stay put
+        allPlaces.add( this ); // include this place in the list of all
+    }
+
+    /** Find a place by its id
+     *  @param i -- the id of the place
+     *  @return the place
+     */
+    public static Place byIndex( int i ) {
+        return allPlaces.get( i );
+    }
+
+    /** How many places are there
+     *  @return the count of all places created so far
+     */
+    public static int count() {
+        return allPlaces.size();
+    }
+
+    /** Select hybrid mode
+     *  @param size -- places with this many people are crowds
+     *  In hybrid mode, crowds are not swept person by person when their
+     *  contagion changes.  Instead, each crowd keeps a count of its
+     *  susceptible occupants, so its total hazard of infection is
+     *  susceptibles * contagious * transmissivity, and the time of the
+     *  next infection there is drawn from that, as in Gillespie's method.
+     *  When it comes, one susceptible occupant chosen at random is
+     *  infected.  The draw is redone whenever the rate changes, which
+     *  is exact because exponential delays are memoryless; all changes
+     *  at one tick share one redraw, see changed.
+     *  Only the people who are infected ever get an infection event.
+     */
+    public static void setCrowdSize( int size ) {
+        crowdSize = size;
+    }
+
+    /** Decide which places are crowds
+     *  A place is a crowd if at least crowdSize people are associated
+     *  with it, see Occupancy.  This must follow Occupancy.build.
+     */
+    public static void findCrowds() {
+        for (Place q: allPlaces) {
+            q.crowd = Occupancy.associates( q ) >= crowdSize;
+            q.susceptibles = 0;
+            for (int i = 0; i < q.occupied; i++) {
+                if (q.occupants[i].isSusceptible()) {
+                    q.susceptibles = q.susceptibles + 1;
+                }
+            }
+        }
+    }
+
+    /** is this place hot
+     *  @return true if anyone here is contagious
+     */
+    boolean isHot() {
+        return contageous > 0;
+    }
+
+    /** Apply the mask of an intervention on this place
+     *  @param factor -- how it scales the transmissivity here
+     *  @see PlaceKind#mask for interventions on all places of a kind
+     */
+    void mask( double factor ) {
+        scale = scale * factor;
+    }
+
+    /** Clear the masks of all interventions on this place
+     */
+    void unmask() {
+        scale = 1.0;
+    }
+
+    /** Close this place to visits that start in some interval
+     *  @param from -- the start of the interval
+     *  @param to -- the end, not included
+     */
+    void close( double from, double to ) {
+        closed = Intervention.during( closed, from, to );
+    }
+
+    /** is this place closed to a visit
+     *  @param start -- when the visit starts
+     *  @return true if an intervention on it or its kind closes it then
+     */
+    boolean isClosedAt( double start ) {
+        return Intervention.within( closed, start )
+                || kind.isClosedAt( start );
+    }
+
+    /** how dangerous is it to stay here now
+     *  @return the transmissivity, scaled by interventions
+     */
+    private double intervened() {
+        return transmissivity * scale * kind.scale();
+    }
+
+    /** the transmissivity here changed, see Intervention
+     *  @param time -- when it changed
+     *  The infections drawn here are drawn again at the new rate.
+     */
+    void transmissivityChanged( double time ) {
+        if (contageous > 0) contagious( time, 0 );
     }
 
     /** a person arrives at a place
@@ -34,7 +169,18 @@ class Place {
      */
     void arrive( double time, Person p ) {
         if (p.isContagious()) contagious( time, +1 );
-        occupants.add( p );
+        if (crowd && p.isSusceptible()) {
+            susceptibles = susceptibles + 1;
+            changed( time );
+        }
+        if (occupied == occupants.length) { // grow, doubling the size
+            Person[] bigger = new Person[ 2 * occupied ];
+            System.arraycopy( occupants, 0, bigger, 0, occupied );
+            occupants = bigger;
+        }
+        occupants[occupied] = p;
+        p.slot = occupied;
+        occupied = occupied + 1;
     }
 
     /** a person departs from a place
@@ -42,8 +188,120 @@ class Place {
      *  @param p the person involved
      */
     void depart( double time, Person p ) {
-        occupants.remove( p );
+        assert occupants[p.slot] == p: "person not here";
+
+        // move the last occupant into the hole left by p
+        occupied = occupied - 1;
+        occupants[p.slot] = occupants[occupied];
+        occupants[p.slot].slot = p.slot;
+        occupants[occupied] = null;
+
         if (p.isContagious()) contagious( time, -1 );
+        if (crowd && p.isSusceptible()) {
+            susceptibles = susceptibles - 1;
+            changed( time );
+        }
+    }
+
+    /** an occupant of this place stops being susceptible
+     *  @param time when this happens
+     */
+    void notSusceptible( double time ) {
+        if (crowd) {
+            susceptibles = susceptibles - 1;
+            changed( time );
+        }
+    }
+
+    // the operand of a CROWD event that redraws, never a draw number
+    private static final long REDRAW = -1;
+
+    /** the counts of a crowd changed, so its rate may have
+     *  @param time -- the current time
+     *  A whole burst of arrivals or departures changes the counts many
+     *  times at one tick; the redraw is put off until the end of the
+     *  burst, so the burst leaves at most one abandoned event behind.
+     *  Until then, infectSomeone ignores a draw made at another rate.
+     */
+    private void changed( double time ) {
+        if (!redrawing) {
+            redrawing = true;
+            Simulator.schedule( time, Simulator.CROWD, id, REDRAW );
+        }
+    }
+
+    /** the rate of infection in a crowd, from its current counts
+     *  @return infections per second, 0 if there can be none
+     */
+    private double rate() {
+        final double t = intervened();
+        if ((contageous > 0) && (susceptibles > 0) && (t > 0.0)) {
+            return susceptibles * contageous * t;
+        }
+        return 0.0;
+    }
+
+    /** draw the time of the next infection in a crowd
+     *  @param time -- the current time
+     *  This abandons any infection drawn before, unless the rate is the
+     *  same as when it was drawn.
+     */
+    private void redraw( double time ) {
+        final double rate = rate();
+        if (rate == drawnRate) return; // what was drawn still stands
+
+        draw = draw + 1;
+        drawnRate = rate;
+        if (rate > 0.0) {
+            final MyRandom r = MyRandom.stream( MyRandom.CROWD, key, draw );
+            final double delay = r.nextExponential( 1 / rate );
+            Simulator.schedule( time + delay, Simulator.CROWD, id, draw );
+        }
+    }
+
+    /** infect one susceptible occupant of a crowd, or redraw
+     *  @param time -- the current time
+     *  @param d -- the draw that scheduled this, or REDRAW, see changed
+     *  This is a schedulable event service routine.
+     */
+    void infectSomeone( double time, long d ) {
+        if (d == REDRAW) {
+            redrawing = false;
+            redraw( time );
+            return;
+        }
+        if (d != draw) return; // this draw was abandoned
+        if (redrawing && (rate() != drawnRate)) {
+            // the counts changed this tick, and the redraw to come will
+            // abandon this draw, so it must not infect anyone now
+            return;
+        }
+        drawnRate = 0.0; // it is used up, so the next change draws again
+
+        // pick at random until a susceptible occupant turns up
+        final MyRandom rand = MyRandom.stream( MyRandom.VICTIM, key, draw );
+        Person victim = null;
+        for (int tries = 0; (victim == null) && (occupied > 0) && (tries < 16);
+                tries++
+        ) {
+            final Person p = occupants[ rand.nextInt( occupied ) ];
+            if (p.isSusceptible()) victim = p;
+        }
+        if (victim == null) { // few are susceptible, so pick among them
+            int seen = 0;
+            for (int i = 0; i < occupied; i++) {
+                if (occupants[i].isSusceptible()) {
+                    seen = seen + 1;
+                    if (rand.nextInt( seen ) == 0) victim = occupants[i];
+                }
+            }
+        }
+
+        if (victim == null) { // the count was wrong, nobody is left
+            susceptibles = 0;
+        } else {
+            victim.infectNow( time ); // this calls notSusceptible
+        }
     }
 
     /** a person in this place changes contageon state
@@ -51,11 +309,231 @@ class Place {
      *  @param c, +1 means became contageous, -1 means recovered or died
      */
     void contagious( double time, int c ) {
+        if (Person.isSparse() && (contageous == 0) && (c > 0)) {
+            // this place just got hot, so everyone who might be here matters
+            // waking does nothing to people whose movement is simulated
+            Occupancy.forEachAssociate( this, (Person p)-> p.wake( time ) );
+        }
         contageous = contageous + c;
+        kind.contagious.addAndGet( c );
+
+        if (crowd) { // crowds don't sweep their occupants
+            changed( time );
+            return;
+        }
 
         // when the number of contageous people in a place changes,
-        for (Person p: occupants) {
-            p.scheduleInfect( time, 1 / (contageous * transmissivity) );
+        // everyone here who could be infected gets a new infection time
+        final double t = intervened();
+        if ((contageous <= 0) || (t <= 0.0)) {
+            // nobody will be infected here, so just cancel pending infections
+            for (int i = 0; i < occupied; i++) occupants[i].cancelInfect();
+            return;
+        }
+
+        final Flight.ContagionSweep sweep = new Flight.ContagionSweep();
+        sweep.begin();
+
+        // first, gather the susceptible occupants, drawing a uniform for each
+        final Sweep s = scratch.get();
+        if (s.susceptible.length < occupied) {
+            s.susceptible = new Person[ occupied ];
+            s.delay = new double[ occupied ];
+        }
+        final Person[] susceptible = s.susceptible;
+        final double[] delay = s.delay;
+        int n = 0;
+        for (int i = 0; i < occupied; i++) {
+            Person p = occupants[i];
+            if (p.isSusceptible()) {
+                susceptible[n] = p;
+                delay[n] = p.delayUniform();
+                n = n + 1;
+            }
+        }
+
+        // second, turn the uniforms into exponential delays, all at once
+        exponentials( delay, n, 1 / (contageous * t) );
+
+        // finally, schedule the infections
+        for (int i = 0; i < n; i++) {
+            susceptible[i].infectAt( time + delay[i] );
+            susceptible[i] = null; // don't hold on to people
+        }
+
+        if (sweep.shouldCommit()) {
+            sweep.kind = kind.name;
+            sweep.occupants = occupied;
+            sweep.susceptible = n;
+            sweep.contagious = contageous;
+            sweep.commit();
+        }
+    }
+
+    /** turn uniformly distributed values into exponentially distributed ones
+     *  @param u -- the uniform values in [0,1), replaced by the results
+     *  @param n -- how many values in u to convert
+     *  @param mean -- the mean of the exponential distribution
+     *  This is the same transformation as MyRandom.nextExponential,
+     *  done a whole array at a time, with the Vector API if setVectorized
+     *  found it, otherwise by scalarExponentials.
+     */
+    static void exponentials( double[] u, int n, double mean ) {
+        if (vectorized != null) {
+            vectorized.exponentials( u, n, mean );
+        } else {
+            scalarExponentials( u, n, mean );
+        }
+    }
+
+    /** turn uniforms into exponentials, one at a time
+     *  @param u -- the uniform values in [0,1), replaced by the results
+     *  @param n -- how many values in u to convert
+     *  @param mean -- the mean of the exponential distribution
+     *  The loop is branch free so that the JIT can unroll it.
+     *  1 - u is never 0, so no result is infinite.
+     */
+    static void scalarExponentials( double[] u, int n, double mean ) {
+        for (int i = 0; i < n; i++) {
+            u[i] = mean * -Math.log( 1.0 - u[i] );
         }
     }
-}
\ No newline at end of file
+
+    /** Tool for converting arrays of uniforms, see exponentials
+     */
+    interface Exponentials {
+        void exponentials( double[] u, int n, double mean );
+    }
+
+    // the Vector API version of exponentials, null if not used
+    private static Exponentials vectorized = null;
+
+    /** Use the Vector API for exponentials, if it can be had
+     *  @return true if so, false if exponentials stays scalar
+     *  The Vector API is an incubator module, so the class that uses it,
+     *  VectorExponentials, is compiled and run apart from the rest; it is
+     *  used only if it was compiled and the module was added when the
+     *  program was run, see README.
+     *  Its log need not agree with Math.log to the last bit, so runs with
+     *  it need not be identical to runs without it.
+     */
+    static boolean setVectorized() {
+        try {
+            vectorized = (Exponentials)Class.forName( "VectorExponentials" )
+                    .getDeclaredConstructor().newInstance();
+        } catch ( ReflectiveOperationException | LinkageError e ) {
+            vectorized = null; // not compiled, or the module is missing
+        }
+        return vectorized != null;
+    }
+
+    /** The changing state of all places, as saved by save
+     */
+    static class Saved {
+        private final int[] contagious;
+        private final int[] susceptibles;
+        private final long[] draws;
+        private final double[] drawnRates;
+        private final boolean[] redrawing;
+        private final int[] ends;         // where each place's occupants end
+        private final Person[] occupants; // of all places, one after another
+        private final int[] byKind; // see PlaceKind.contagiousCounts
+
+        private Saved() {
+            final int n = allPlaces.size();
+            contagious = new int[ n ];
+            susceptibles = new int[ n ];
+            draws = new long[ n ];
+            drawnRates = new double[ n ];
+            redrawing = new boolean[ n ];
+            ends = new int[ n ];
+            int end = 0;
+            for (int i = 0; i < n; i++) {
+                final Place q = allPlaces.get( i );
+                contagious[i] = q.contageous;
+                susceptibles[i] = q.susceptibles;
+                draws[i] = q.draw;
+                drawnRates[i] = q.drawnRate;
+                redrawing[i] = q.redrawing;
+                end = end + q.occupied;
+                ends[i] = end;
+            }
+            occupants = new Person[ end ];
+            for (int i = 0; i < n; i++) {
+                final Place q = allPlaces.get( i );
+                System.arraycopy( q.occupants, 0,
+                        occupants, ends[i] - q.occupied, q.occupied
+                );
+            }
+            byKind = PlaceKind.contagiousCounts();
+        }
+    }
+
+    /** Save the changing state of all places
+     *  @return the saved state, see restore
+     *  @see TimeWarp
+     */
+    static Saved save() {
+        return new Saved();
+    }
+
+    /** Put the changing state of all places back as it was saved
+     *  @param s -- the saved state, which may be restored again later
+     *  The occupants of each place get back their slots, see Person.slot.
+     */
+    static void restore( Saved s ) {
+        int start = 0;
+        for (int i = 0; i < s.ends.length; i++) {
+            final Place q = allPlaces.get( i );
+            q.contageous = s.contagious[i];
+            q.susceptibles = s.susceptibles[i];
+            q.draw = s.draws[i];
+            q.drawnRate = s.drawnRates[i];
+            q.redrawing = s.redrawing[i];
+            final int n = s.ends[i] - start;
+            if (q.occupants.length < n) {
+                q.occupants = new Person[ n ];
+            } else if (q.occupied > n) { // don't hold on to people
+                Arrays.fill( q.occupants, n, q.occupied, null );
+            }
+            System.arraycopy( s.occupants, start, q.occupants, 0, n );
+            q.occupied = n;
+            for (int j = 0; j < n; j++) q.occupants[j].slot = j;
+            start = s.ends[i];
+        }
+        PlaceKind.setContagiousCounts( s.byKind );
+    }
+
+    /** Give all places new ids
+     *  @param newId -- the new id of each place, by old id
+     *  @see Renumber
+     */
+    static void renumber( int[] newId ) {
+        final Place[] reordered = new Place[ allPlaces.size() ];
+        for (Place q: allPlaces) {
+            q.id = newId[ q.id ];
+            reordered[ q.id ] = q;
+        }
+        allPlaces.clear();
+        allPlaces.addAll( Arrays.asList( reordered ) );
+    }
+
+    /** Put the occupants of every place in order of their ids
+     *  @see Renumber
+     */
+    static void sortOccupants() {
+        for (Place q: allPlaces) {
+            Arrays.sort( q.occupants, 0, q.occupied,
+                    (Person a, Person b)-> Integer.compare( a.id, b.id )
+            );
+            for (int i = 0; i < q.occupied; i++) q.occupants[i].slot = i;
+        }
+    }
+
+    /** Forget all places, ready for a new model
+     */
+    public static void reset() {
+        allPlaces.clear();
+        crowdSize = Integer.MAX_VALUE;
+    }
+}
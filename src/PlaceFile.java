@@ -0,0 +1,381 @@
+// PlaceFile.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+
+/** Streaming readers for explicit places and person to place assignments
+ *  @see PlaceKind for the places created here
+ *  @see Person for the people assigned here
+ *  Both files may be either CSV text or a binary columnar format; files
+ *  that begin with the magic number for their binary format are binary.
+ *  Files are read a row at a time so no file is ever held in memory.
+ *
+ *  Place files have one row per place:  id,kind,capacity,transmissivity
+ *  where id is a non-negative integer naming the place in the assignments
+ *  file, kind is the name of a PlaceKind, and transmissivity is per hour.
+ *  An empty or negative transmissivity means use that of the kind.
+ *
+ *  Assignment files have one row per link from a person to a place:
+ *  person,place where person is the index of a person, counting from zero
+ *  in order of creation, and place is an id from the places file.
+ *  The person is linked to the place with the schedule their role gives
+ *  for that kind of place.
+ *
+ *  In CSV files, blank lines, lines starting with # and a header line,
+ *  the first other line if it does not begin with a number, are ignored;
+ *  any later line that does not begin with a number is an error.
+ *
+ *  The binary place format is the int PLACES, a long row count, an int
+ *  count of kind names followed by that many writeUTF names, then four
+ *  columns of row count entries each: int id, int index into the kind
+ *  names, int capacity and float transmissivity.  The names are modified
+ *  UTF-8, so a name may take more bytes than it has chars.
+ *  The binary assignment format is the int ASSIGNMENTS, a long row count,
+ *  then two columns: int person and int place.
+ */
+class PlaceFile {
+    private PlaceFile() {} // nobody should ever construct a PlaceFile
+
+    /** magic number at the start of a binary place file, "EPPL" */
+    public static final int PLACES = 0x4550504C;
+
+    /** magic number at the start of a binary assignment file, "EPAS" */
+    public static final int ASSIGNMENTS = 0x45504153;
+
+    private static final int bufferSize = 1 << 16; // per open stream
+
+    // explicit places, by the id given in the places file; ids may be
+    // sparse, so this is not an array indexed by id
+    private static final HashMap<Integer,Place> byId = new HashMap<>();
+
+    /** Read the places file
+     *  @param name -- the file name
+     *  This must be called after all place kinds are known.
+     */
+    public static void loadPlaces( String name ) {
+        try {
+            if (magic( name ) == PLACES) {
+                loadBinaryPlaces( name );
+            } else {
+                loadCSVPlaces( name );
+            }
+        } catch ( IOException e ) {
+            Error.warn( "places " + name + ": " + e.getMessage() );
+        }
+    }
+
+    /** Read the assignments file
+     *  @param name -- the file name
+     *  This must be called after the places file is read and the people
+     *  are created, but before the people are distributed to places.
+     */
+    public static void loadAssignments( String name ) {
+        try {
+            if (magic( name ) == ASSIGNMENTS) {
+                loadBinaryAssignments( name );
+            } else {
+                loadCSVAssignments( name );
+            }
+        } catch ( IOException e ) {
+            Error.warn( "assignments " + name + ": " + e.getMessage() );
+        }
+    }
+
+    /** Get the first four bytes of a file
+     *  @param name -- the file name
+     *  @return the first int in the file, or zero if it is too short
+     */
+    private static int magic( String name ) throws IOException {
+        try (DataInputStream in = open( name, 0 )) {
+            return (in.available() >= 4) ? in.readInt() : 0;
+        }
+    }
+
+    /** Open a binary stream on a file, positioned at some offset
+     *  @param name -- the file name
+     *  @param offset -- the number of bytes to skip
+     *  @return the stream
+     */
+    private static DataInputStream open( String name, long offset )
+            throws IOException {
+        DataInputStream in = new DataInputStream( new BufferedInputStream(
+                new FileInputStream( name ), bufferSize
+        ) );
+        in.skipNBytes( offset );
+        return in;
+    }
+
+    // place creation and person assignment, common to both formats
+
+    /** Create one explicit place
+     *  @param where -- context for error messages
+     *  @param id -- the id of the place in the assignment file
+     *  @param kind -- the name of the kind of place
+     *  @param capacity -- the number of people it holds
+     *  @param t -- transmissivity per hour, negative for the default
+     */
+    private static void makePlace(
+            MyScanner.Message where, int id, String kind, int capacity, double t
+    ) {
+        PlaceKind pk = PlaceKind.findPlaceKind( kind );
+        if (pk == null) {
+            Error.warn( where.myString() + ": undefined place kind " + kind );
+            return;
+        }
+        if (id < 0) {
+            Error.warn( where.myString() + ": negative place id " + id );
+            return;
+        }
+        if (capacity < 0) {
+            Error.warn( where.myString() + ": negative capacity " + capacity );
+            return;
+        }
+        if (byId.containsKey( id )) {
+            Error.warn( where.myString() + ": duplicate place id " + id );
+            return;
+        }
+        byId.put( id, pk.makePlace( capacity, t ) );
+    }
+
+    /** Assign one person to one explicit place
+     *  @param where -- context for error messages
+     *  @param person -- the index of the person
+     *  @param place -- the id of the place
+     */
+    private static void assign(
+            MyScanner.Message where, int person, int place
+    ) {
+        if ((person < 0) || (person >= Person.population())) {
+            Error.warn( where.myString() + ": no such person " + person );
+            return;
+        }
+        Place q = byId.get( place );
+        if (q == null) {
+            Error.warn( where.myString() + ": no such place " + place );
+            return;
+        }
+        Person p = Person.byIndex( person );
+        if (!p.role().visits( q.kind )) {
+            Error.warn( where.myString() + ": role " + p.role().name
+                    + " does not visit " + q.kind.name
+            );
+            return;
+        }
+        if (p.hasPlaceOf( q.kind )) {
+            Error.warn( where.myString() + ": person " + person
+                    + " already has a " + q.kind.name
+            );
+            return;
+        }
+        q.vacancy = q.vacancy - 1; // may go negative, explicit overrides size
+        p.emplace( q, p.role().scheduleFor( q.kind ) );
+    }
+
+    // CSV format
+
+    /** Split a CSV line into fields
+     *  @param line -- the line
+     *  @param fields -- where to put the fields
+     *  @return the number of fields found, up to fields.length
+     */
+    private static int split( String line, String[] fields ) {
+        int n = 0;
+        int start = 0;
+        while (n < fields.length) {
+            int comma = line.indexOf( ',', start );
+            if (comma < 0) comma = line.length();
+            fields[n] = line.substring( start, comma ).trim();
+            n = n + 1;
+            if (comma == line.length()) break;
+            start = comma + 1;
+        }
+        return n;
+    }
+
+    /** Should this CSV line be ignored
+     *  @param line -- the line
+     *  @return true for blank lines and comments
+     */
+    private static boolean ignore( String line ) {
+        String l = line.trim();
+        return l.isEmpty() || (l.charAt( 0 ) == '#');
+    }
+
+    /** Is this CSV line a header
+     *  @param line -- the line, not ignored, see ignore
+     *  @return true if it does not begin with a number
+     *  Only the first line not ignored may be a header; later lines like
+     *  this are parsed as rows, so they are reported as errors.
+     */
+    private static boolean header( String line ) {
+        char c = line.trim().charAt( 0 );
+        return !(((c >= '0') && (c <= '9')) || (c == '-'));
+    }
+
+    private static void loadCSVPlaces( String name ) throws IOException {
+        final String[] f = new String[4];
+        try (BufferedReader in = new BufferedReader(
+                new FileReader( name ), bufferSize
+        )) {
+            long lineNo = 0;
+            boolean first = true; // no line has been read but ignored ones
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lineNo = lineNo + 1;
+                if (ignore( line )) continue;
+                if (first) {
+                    first = false;
+                    if (header( line )) continue;
+                }
+                final long l = lineNo;
+                final MyScanner.Message where = ()-> "places " + name + ":" + l;
+                int n = split( line, f );
+                if (n < 3) {
+                    Error.warn( where.myString() + ": expected id,kind,capacity" );
+                    continue;
+                }
+                try {
+                    double t = ((n < 4) || f[3].isEmpty())
+                            ? -1.0 : Double.parseDouble( f[3] );
+                    makePlace( where, Integer.parseInt( f[0] ), f[1],
+                            Integer.parseInt( f[2] ), t
+                    );
+                } catch ( NumberFormatException e ) {
+                    Error.warn( where.myString() + ": bad number " + e.getMessage() );
+                }
+            }
+        }
+    }
+
+    private static void loadCSVAssignments( String name ) throws IOException {
+        final String[] f = new String[2];
+        try (BufferedReader in = new BufferedReader(
+                new FileReader( name ), bufferSize
+        )) {
+            long lineNo = 0;
+            boolean first = true; // no line has been read but ignored ones
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lineNo = lineNo + 1;
+                if (ignore( line )) continue;
+                if (first) {
+                    first = false;
+                    if (header( line )) continue;
+                }
+                final long l = lineNo;
+                final MyScanner.Message where
+                        = ()-> "assignments " + name + ":" + l;
+                if (split( line, f ) < 2) {
+                    Error.warn( where.myString() + ": expected person,place" );
+                    continue;
+                }
+                try {
+                    assign( where,
+                            Integer.parseInt( f[0] ), Integer.parseInt( f[1] )
+                    );
+                } catch ( NumberFormatException e ) {
+                    Error.warn( where.myString() + ": bad number " + e.getMessage() );
+                }
+            }
+        }
+    }
+
+    // binary columnar format
+    // each column is read through its own stream, so memory use is bounded
+    // by the buffers no matter how many rows there are
+
+    /** How many bytes a string takes in modified UTF-8, see readUTF
+     *  @param s -- the string
+     *  @return its length in bytes, less the 2 byte length before it
+     */
+    private static int utfLength( String s ) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt( i );
+            if ((c >= 0x0001) && (c <= 0x007F)) {
+                n = n + 1;
+            } else if (c <= 0x07FF) { // including 0, written as 2 bytes
+                n = n + 2;
+            } else {
+                n = n + 3;
+            }
+        }
+        return n;
+    }
+
+    private static void loadBinaryPlaces( String name ) throws IOException {
+        final long rows;
+        final String[] kinds;
+        long offset = 4 + 8 + 4; // magic, row count, kind count
+        try (DataInputStream in = open( name, 4 )) {
+            rows = in.readLong();
+            kinds = new String[ in.readInt() ];
+            for (int i = 0; i < kinds.length; i++) {
+                kinds[i] = in.readUTF();
+                offset = offset + 2 + utfLength( kinds[i] );
+            }
+        }
+        try (
+            DataInputStream ids = open( name, offset );
+            DataInputStream kind = open( name, offset + 4 * rows );
+            DataInputStream cap = open( name, offset + 8 * rows );
+            DataInputStream trans = open( name, offset + 12 * rows );
+        ) {
+            for (long r = 0; r < rows; r++) {
+                final long row = r;
+                final MyScanner.Message where
+                        = ()-> "places " + name + ": row " + row;
+                int k = kind.readInt();
+                int id = ids.readInt();
+                int c = cap.readInt();
+                float t = trans.readFloat();
+                if ((k < 0) || (k >= kinds.length)) {
+                    Error.warn( where.myString() + ": bad kind index " + k );
+                    continue;
+                }
+                makePlace( where, id, kinds[k], c, t );
+            }
+        }
+    }
+
+    private static void loadBinaryAssignments( String name ) throws IOException {
+        final long rows;
+        try (DataInputStream in = open( name, 4 )) {
+            rows = in.readLong();
+        }
+        final long offset = 4 + 8; // magic, row count
+        try (
+            DataInputStream person = open( name, offset );
+            DataInputStream place = open( name, offset + 4 * rows );
+        ) {
+            for (long r = 0; r < rows; r++) {
+                final long row = r;
+                assign( ()-> "assignments " + name + ": row " + row,
+                        person.readInt(), place.readInt()
+                );
+            }
+        }
+    }
+
+    /** Find an explicit place by the id given in the places file
+     *  @param id -- the id
+     *  @return the place, or null if there is none with that id
+     *  @see Intervention
+     */
+    public static Place byId( int id ) {
+        return byId.get( id );
+    }
+
+    /** Forget all explicit place ids, ready for a new model
+     */
+    public static void reset() {
+        byId.clear();
+    }
+}
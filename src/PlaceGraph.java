@@ -0,0 +1,94 @@
+// PlaceGraph.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.util.Arrays;
+
+/** The graph of places that people move between
+ *  @see Partition and Renumber for its users
+ *  The graph has one vertex per place, and an edge from each person's
+ *  home to each place they visit on a followed schedule, weighted by
+ *  the number of people who make that visit.
+ *  The load of a place is the number of people associated with it,
+ *  as residents or visitors, a rough measure of the work it causes.
+ *  The graph is a snapshot; build a new one if people or places change.
+ */
+class PlaceGraph {
+    // neighbours of place q are neighbour[ start[q] .. start[q+1] )
+    public final int[] start;
+    public final int[] neighbour;
+    public final int[] weight;   // edge weights, parallel to neighbour
+    public final int[] load;     // vertex weights, by Place.id
+
+    // edges while the graph is being built, each packed as from << 32 | to
+    private long[] edges = new long[ 64 ];
+    private int edgeCount = 0;
+
+    /** Build the graph from the current population
+     *  This must be done after all people are put in their places.
+     */
+    public PlaceGraph() {
+        final int places = Place.count();
+        final int people = Person.population();
+
+        // first, list every visit as an edge in both directions
+        load = new int[ places ];
+        for (int i = 0; i < people; i++) {
+            final int h = Person.byIndex( i ).home().id;
+            load[h]++;
+            Person.byIndex( i ).forEachVisit( (Place q, Schedule s)-> {
+                load[q.id]++;
+                addEdge( h, q.id );
+                addEdge( q.id, h );
+            } );
+        }
+
+        // then merge duplicate edges into weights, grouped by place
+        Arrays.sort( edges, 0, edgeCount );
+        start = new int[ places + 1 ];
+        neighbour = new int[ edgeCount ];
+        weight = new int[ edgeCount ];
+        int n = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            if ((i > 0) && (edges[i] == edges[i - 1])) {
+                weight[n - 1]++;
+            } else {
+                final int from = (int)(edges[i] >>> 32);
+                neighbour[n] = (int)edges[i];
+                weight[n] = 1;
+                start[from + 1]++;
+                n = n + 1;
+            }
+        }
+        for (int q = 0; q < places; q++) start[q + 1] = start[q + 1] + start[q];
+        edges = null; // don't hold on to the list
+    }
+
+    /** Add an edge to the list
+     *  @param from, to -- the ids of the places
+     */
+    private void addEdge( int from, int to ) {
+        if (edgeCount == edges.length) { // grow, doubling the size
+            edges = Arrays.copyOf( edges, 2 * edgeCount );
+        }
+        edges[edgeCount] = ((long)from << 32) | to;
+        edgeCount = edgeCount + 1;
+    }
+
+    /** How many places are there
+     *  @return the number of vertices
+     */
+    public int places() {
+        return load.length;
+    }
+
+    /** How many neighbours does a place have
+     *  @param q -- the id of the place
+     *  @return the number of places it shares people with
+     */
+    public int degree( int q ) {
+        return start[q + 1] - start[q];
+    }
+}
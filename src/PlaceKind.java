@@ -6,6 +6,7 @@
 
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Categories of places
  *  @see Place
@@ -32,13 +33,23 @@ class PlaceKind {
     private double sigma;  // sigma of the log normal population distribution
     private Place unfilledPlace = null; // a place of this kind being filled
     private int unfilledCapacity = 0;   // capacity of unfilledPlace
+    private int sizesDrawn = 0;         // places made by findPlace, for keys
+
+    // instance variables that vary as simulation progresses
+    // contagious occupants of all places of this kind, see Parallel
+    final AtomicInteger contagious = new AtomicInteger();
+    // interventions on all places of this kind, see Intervention
+    private double[] closed = null; // when, see Intervention.during
+    private double scale = 1.0;     // the product of the factors of the rest
+
+    // explicit places of this kind, filled before any new place is made
+    private final LinkedList<Place> explicitPlaces = new LinkedList<>();
 
     // a list of all the people associated with this kind of place
     private final LinkedList<PersonSchedule> people = new LinkedList<>();
 
     // static variables used for categories of places
     private static LinkedList<PlaceKind> allPlaceKinds = new LinkedList<>();
-    private static final MyRandom rand = MyRandom.stream();
 
     /** Construct a new place category by scanning an input stream
      *  @param in -- the input stream
@@ -57,10 +68,12 @@ class PlaceKind {
                 9.9999F,
                 ()-> "place " + name + " " + median + ": not followed by scatter"
         );
-        transmissivity = (1/Time.hour) * in.getNextFloat(
-                9.9999F,
-                ()-> "place " + name + " " + median + " " + scatter
-                        + ": not followed by transmissivity"
+        transmissivity = (1/Time.hour) * Parameters.get(
+                "transmissivity." + name, in.getNextFloat(
+                        9.9999F,
+                        ()-> "place " + name + " " + median + " " + scatter
+                                + ": not followed by transmissivity"
+                )
         ); // BUG: conversion factors this is given in per hour!!!
         in.getNextLiteral(
                 MyScanner.semicolon,
@@ -103,16 +116,46 @@ class PlaceKind {
      *  particular kind, potentially occupying a space in that place.
      */
     private Place findPlace() {
+        // explicitly listed places get filled first, in the order given
+        while (!explicitPlaces.isEmpty()) {
+            Place p = explicitPlaces.getFirst();
+            if (p.vacancy > 0) {
+                p.vacancy = p.vacancy - 1;
+                return p;
+            }
+            explicitPlaces.removeFirst(); // this one is full
+        }
+
         if (unfilledCapacity <= 0 ) { // need to make a new place
             // make new place using a log-normal distribution for the size
+            final MyRandom r = MyRandom.stream(
+                    MyRandom.SIZE, name.hashCode(), sizesDrawn
+            );
+            sizesDrawn = sizesDrawn + 1;
             unfilledCapacity
-                    = (int)Math.round( rand.nextLogNormal( median, sigma) );
+                    = (int)Math.round( r.nextLogNormal( median, sigma) );
             unfilledPlace = new Place( this, transmissivity );
         }
         unfilledCapacity = unfilledCapacity - 1;
         return unfilledPlace;
     }
 
+    /** Make an explicitly specified place of this kind
+     *  @param capacity -- how many people this place holds
+     *  @param t -- transmissivity of the place, per hour, or negative
+     *              to use the transmissivity of this kind of place
+     *  @return the new place
+     *  Explicit places are filled before findPlace makes any new places.
+     */
+    public Place makePlace( int capacity, double t ) {
+        Place p = new Place(
+                this, (t < 0.0) ? transmissivity : (1/Time.hour) * t
+        );
+        p.vacancy = capacity;
+        explicitPlaces.add( p );
+        return p;
+    }
+
     /** Add a person to the population of this kind of place
      *  @param p the new person
      *  @param s the associated schedule
@@ -130,13 +173,26 @@ class PlaceKind {
 
         // for each kind of place
         for (PlaceKind pk: allPlaceKinds) {
+            final Flight.Distribute event = new Flight.Distribute();
+            final int placesBefore = Place.count();
+            event.begin();
+
             // shuffle its people to break correlations from people to places
             Collections.shuffle( pk.people, MyRandom.stream );
 
             // for each person, associate that person with a specific place
             for (PersonSchedule ps: pk.people) {
+                // people assigned to explicit places are already there
+                if (ps.person.hasPlaceOf( pk )) continue;
                 ps.person.emplace( pk.findPlace(), ps.schedule );
             }
+
+            if (event.shouldCommit()) {
+                event.kind = pk.name;
+                event.people = pk.people.size();
+                event.places = Place.count() - placesBefore;
+                event.commit();
+            }
         }
     }
 
@@ -150,4 +206,84 @@ class PlaceKind {
         }
         return null; // category not found
     }
-}
\ No newline at end of file
+
+    /** Get the names of all categories of places
+     *  @return the names, in order of definition
+     */
+    public static String[] names() {
+        String[] n = new String[ allPlaceKinds.size() ];
+        int i = 0;
+        for (PlaceKind pk: allPlaceKinds) {
+            n[i] = pk.name;
+            i = i + 1;
+        }
+        return n;
+    }
+
+    /** Get the contagious occupants of all categories of places
+     *  @return the counts, in the order given by names()
+     */
+    public static int[] contagiousCounts() {
+        int[] c = new int[ allPlaceKinds.size() ];
+        int i = 0;
+        for (PlaceKind pk: allPlaceKinds) {
+            c[i] = pk.contagious.get();
+            i = i + 1;
+        }
+        return c;
+    }
+
+    /** Set the contagious occupants of all categories of places
+     *  @param c -- the counts, as returned by contagiousCounts
+     *  @see Place#restore
+     */
+    static void setContagiousCounts( int[] c ) {
+        int i = 0;
+        for (PlaceKind pk: allPlaceKinds) {
+            pk.contagious.set( c[i] );
+            i = i + 1;
+        }
+    }
+
+    /** Apply the mask of an intervention on all places of this kind
+     *  @param factor -- how it scales their transmissivity
+     */
+    void mask( double factor ) {
+        scale = scale * factor;
+    }
+
+    /** Clear the masks of all interventions on all places of this kind
+     */
+    void unmask() {
+        scale = 1.0;
+    }
+
+    /** Close all places of this kind to visits that start in an interval
+     *  @param from -- the start of the interval
+     *  @param to -- the end, not included
+     */
+    void close( double from, double to ) {
+        closed = Intervention.during( closed, from, to );
+    }
+
+    /** Are places of this kind closed to a visit
+     *  @param start -- when the visit starts
+     *  @return true if some intervention closes all of them then
+     */
+    boolean isClosedAt( double start ) {
+        return Intervention.within( closed, start );
+    }
+
+    /** How are the transmissivities of places of this kind scaled
+     *  @return the product of the factors of interventions on all of them
+     */
+    double scale() {
+        return scale;
+    }
+
+    /** Forget all categories of places, ready for a new model
+     */
+    public static void reset() {
+        allPlaceKinds.clear();
+    }
+}
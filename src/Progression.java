@@ -0,0 +1,171 @@
+// Progression.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Bucketed timers for the progress of the disease through people
+ *  @see Person for the disease states and their service routines
+ *  @see Simulator for the event set these buckets are drained from
+ *  Changes of disease state are not scheduled as individual events.
+ *  Instead, they are rounded up to the next whole resolution interval
+ *  and put in a bucket for that interval and the kind of change.
+ *  Each bucket is one event, and when it comes due, all the changes in
+ *  it are done in one loop.
+ */
+class Progression {
+    private Progression() {} // nobody should ever construct a Progression
+
+    // the kinds of changes, each with its own buckets
+    public static final int BE_CONTAGIOUS = 0;
+    public static final int FEEL_SICK = 1;
+    public static final int GO_TO_BED = 2;
+    public static final int RECOVER = 3;
+    public static final int DIE = 4;
+    private static final int STAGES = 5; // number of kinds of change
+
+    /** the resolution of the timers */
+    public static final double resolution = Time.minute;
+
+    // the people due for one kind of change at one time
+    private static class Bucket {
+        Person[] people = new Person[ 16 ];
+        int count = 0;
+    }
+
+    // buckets waiting to be drained, by key, see schedule
+    private static final HashMap<Long,Bucket> buckets = new HashMap<>();
+
+    // drained buckets kept for reuse
+    private static final ArrayList<Bucket> spares = new ArrayList<>();
+
+    /** Schedule a change of disease state
+     *  @param time -- when the change is due, rounded up to the resolution
+     *  @param p -- the person whose state changes
+     *  @param stage -- what kind of change, BE_CONTAGIOUS, FEEL_SICK etc
+     */
+    public static void schedule( double time, Person p, int stage ) {
+        final long tick = (long)Math.ceil( time / resolution );
+        final long key = tick * STAGES + stage;
+
+        Bucket b = buckets.get( key );
+        if (b == null) { // first change due at this tick, needs an event
+            b = spares.isEmpty()
+                    ? new Bucket() : spares.remove( spares.size() - 1 );
+            buckets.put( key, b );
+            Simulator.schedule(
+                    tick * resolution, Simulator.PROGRESS, 0, key
+            );
+        }
+        if (b.count == b.people.length) { // grow, doubling the size
+            Person[] bigger = new Person[ 2 * b.count ];
+            System.arraycopy( b.people, 0, bigger, 0, b.count );
+            b.people = bigger;
+        }
+        b.people[b.count] = p;
+        b.count = b.count + 1;
+    }
+
+    /** Make all the changes in one bucket
+     *  @param time -- the current time
+     *  @param key -- identifies the bucket
+     *  This is a schedulable event service routine.
+     */
+    static void drain( double time, long key ) {
+        final Bucket b = buckets.remove( key );
+        final Person[] people = b.people;
+        final int n = b.count;
+
+        switch ((int)(key % STAGES)) {
+        case BE_CONTAGIOUS:
+            for (int i = 0; i < n; i++) people[i].beContagious( time );
+            break;
+        case FEEL_SICK:
+            for (int i = 0; i < n; i++) people[i].feelSick( time );
+            break;
+        case GO_TO_BED:
+            for (int i = 0; i < n; i++) people[i].goToBed( time );
+            break;
+        case RECOVER:
+            for (int i = 0; i < n; i++) people[i].recover( time );
+            break;
+        case DIE:
+            for (int i = 0; i < n; i++) people[i].die( time );
+            break;
+        }
+
+        Arrays.fill( people, 0, n, null ); // don't hold on to people
+        b.count = 0;
+        spares.add( b );
+    }
+
+    /** Tool for selecting people
+     */
+    public interface Filter {
+        boolean test( Person p );
+    }
+
+    /** Forget the pending changes of some people
+     *  @param f -- selects the people to forget
+     *  Buckets left empty are still drained, doing nothing.
+     */
+    public static void discard( Filter f ) {
+        for (Bucket b: buckets.values()) {
+            int n = 0;
+            for (int i = 0; i < b.count; i++) {
+                if (!f.test( b.people[i] )) {
+                    b.people[n] = b.people[i];
+                    n = n + 1;
+                }
+            }
+            Arrays.fill( b.people, n, b.count, null );
+            b.count = n;
+        }
+    }
+
+    /** The pending changes, as saved by save
+     */
+    static class Saved {
+        private final HashMap<Long,Person[]> buckets = new HashMap<>();
+    }
+
+    /** Save the pending changes
+     *  @return the saved changes, see restore
+     *  @see TimeWarp
+     */
+    static Saved save() {
+        final Saved s = new Saved();
+        for (Map.Entry<Long,Bucket> e: buckets.entrySet()) {
+            final Bucket b = e.getValue();
+            s.buckets.put( e.getKey(), Arrays.copyOf( b.people, b.count ) );
+        }
+        return s;
+    }
+
+    /** Put the pending changes back as they were saved
+     *  @param s -- the saved changes, which may be restored again later
+     *  The events that drain the buckets are restored by Simulator.
+     */
+    static void restore( Saved s ) {
+        buckets.clear();
+        for (Map.Entry<Long,Person[]> e: s.buckets.entrySet()) {
+            final Bucket b = new Bucket();
+            b.people = Arrays.copyOf(
+                    e.getValue(), Math.max( e.getValue().length, 16 )
+            );
+            b.count = e.getValue().length;
+            buckets.put( e.getKey(), b );
+        }
+    }
+
+    /** Forget all pending changes, ready for a new model
+     */
+    public static void reset() {
+        buckets.clear();
+    }
+}
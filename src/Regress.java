@@ -0,0 +1,320 @@
+// Regress.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** Regression checks for changes to the simulation engine
+ *  @see Trace for the traces compared here
+ *  Engines that should be exactly equivalent are checked by running the
+ *  same model from the same seed on each, with -trace, and comparing
+ *  the traces with:
+ *  <pre>
+ *    java Epidemic -compare traceA traceB
+ *  </pre>
+ *  Engines that should only be statistically equivalent are checked by
+ *  running an ensemble of seeds on each and comparing the outcomes:
+ *  <pre>
+ *    java Epidemic -equivalence runs modelfile classpathA classpathB
+ *  </pre>
+ *  Each engine is run as its own process from its own class path,
+ *  with seeds 1 to runs.  The final number of people in each disease
+ *  state, the peak number infected and the day of that peak are compared
+ *  with Welch's t test.
+ *  Either check fails, with exit status 1, if the engines differ.
+ */
+class Regress {
+    private Regress() {} // nobody should ever construct a Regress
+
+    /** outcomes less likely than this under equivalence are failures */
+    public static final double alpha = 0.001;
+
+    /** Compare two traces
+     *  @param a, b -- the names of the trace files
+     *  @param out -- where the verdict goes
+     */
+    public static void compareTraces( String a, String b, PrintStream out ) {
+        try (BufferedReader ra = new BufferedReader( new FileReader( a ) );
+             BufferedReader rb = new BufferedReader( new FileReader( b ) )
+        ) {
+            String la = ra.readLine();
+            String lb = rb.readLine();
+            int line = 1;
+            while ((la != null) && la.equals( lb )) {
+                la = ra.readLine();
+                lb = rb.readLine();
+                line = line + 1;
+            }
+            if ((la == null) && (lb == null)) {
+                out.println( "identical, " + (line - 1) + " lines" );
+                return;
+            }
+            out.println( "traces differ at line " + line );
+            out.println( "  " + a + ": " + la );
+            out.println( "  " + b + ": " + lb );
+            if ((la != null) && (lb != null)
+                    && !censusOf( la ).equals( censusOf( lb ) )
+            ) {
+                out.println( "  population statistics differ" );
+            } else {
+                out.println( "  events differ, population statistics agree" );
+            }
+            Error.fatal( "traces differ" );
+        } catch ( IOException e ) {
+            Error.fatal( "compare: " + e.getMessage() );
+        }
+    }
+
+    /** Get the population statistics from a trace line
+     *  @param line -- day,events,digest,census...
+     *  @return the census part of the line
+     */
+    private static String censusOf( String line ) {
+        final String[] f = line.split( ",", 4 );
+        return (f.length < 4) ? "" : f[3];
+    }
+
+    // the outcomes compared, see outcomes
+    private static final String[] names = outcomeNames();
+
+    /** Name the outcomes compared
+     *  @return the final count of each disease state, then the peak
+     */
+    private static String[] outcomeNames() {
+        final String[] states = Person.stateNames();
+        final String[] n = new String[ states.length + 2 ];
+        for (int i = 0; i < states.length; i++) n[i] = "final " + states[i];
+        n[states.length] = "peak infected";
+        n[states.length + 1] = "day of peak";
+        return n;
+    }
+
+    /** Compare two engines over an ensemble of seeds
+     *  @param runs -- how many seeds to run on each engine
+     *  @param model -- the name of the model file
+     *  @param pathA, pathB -- the class paths of the engines
+     *  @param out -- where the verdict goes
+     *  At least 2 runs are needed to estimate the spread of an outcome.
+     */
+    public static void compareEngines(
+            int runs, String model, String pathA, String pathB, PrintStream out
+    ) {
+        if (runs < 2) Error.fatal( "-equivalence " + runs + ": bad count" );
+        final double[][] a = new double[ names.length ][ runs ];
+        final double[][] b = new double[ names.length ][ runs ];
+        boolean identical = true;
+        for (int seed = 1; seed <= runs; seed++) {
+            final ArrayList<int[]> rowsA = run( pathA, model, seed );
+            final ArrayList<int[]> rowsB = run( pathB, model, seed );
+            outcomes( rowsA, a, seed - 1 );
+            outcomes( rowsB, b, seed - 1 );
+            identical = identical && same( rowsA, rowsB );
+        }
+
+        out.println( "outcome,mean A,mean B,t,df,p" );
+        boolean differ = false;
+        for (int i = 0; i < names.length; i++) {
+            final double ma = mean( a[i] );
+            final double mb = mean( b[i] );
+            final double va = variance( a[i], ma ) / runs;
+            final double vb = variance( b[i], mb ) / runs;
+            double t = 0.0;
+            double df = 2 * runs - 2;
+            double p = 1.0;
+            if (va + vb > 0.0) { // Welch's t test
+                t = (ma - mb) / Math.sqrt( va + vb );
+                df = ((va + vb) * (va + vb))
+                        / ((va * va + vb * vb) / (runs - 1));
+                p = betaRegularized( df / (df + t * t), df / 2, 0.5 );
+            } else if (ma != mb) { // no spread but different
+                p = 0.0;
+            }
+            out.println( String.format( "%s,%.2f,%.2f,%.3f,%.1f,%.4g",
+                    names[i], ma, mb, t, df, p
+            ) );
+            differ = differ || (p < alpha);
+        }
+        if (identical) out.println( "identical reports for every seed" );
+        if (differ) Error.fatal( "engines differ" );
+    }
+
+    /** Run one model on one engine
+     *  @param path -- the class path of the engine
+     *  @param model -- the name of the model file
+     *  @param seed -- the random seed
+     *  @return the rows of the CSV report, without times
+     */
+    private static ArrayList<int[]> run( String path, String model, int seed ) {
+        final String java = System.getProperty( "java.home" )
+                + File.separator + "bin" + File.separator + "java";
+        final ArrayList<int[]> rows = new ArrayList<>();
+        try {
+            final Process p = new ProcessBuilder(
+                    java, "-cp", path, "Epidemic",
+                    "-seed", Integer.toString( seed ), model
+            ).redirectError( ProcessBuilder.Redirect.INHERIT ).start();
+            try (BufferedReader r = new BufferedReader( new InputStreamReader(
+                    p.getInputStream(), StandardCharsets.UTF_8
+            ) )) {
+                r.readLine(); // the headline
+                for (String line = r.readLine(); line != null;
+                        line = r.readLine()
+                ) {
+                    final String[] f = line.split( "," );
+                    final int[] row = new int[ f.length - 1 ];
+                    for (int i = 1; i < f.length; i++) {
+                        row[i - 1] = Integer.parseInt( f[i] );
+                    }
+                    rows.add( row );
+                }
+            }
+            if (p.waitFor() != 0) Error.fatal( path + ": run failed" );
+        } catch ( IOException | NumberFormatException e ) {
+            Error.fatal( path + ": " + e.getMessage() );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            Error.fatal( "interrupted" );
+        }
+        if (rows.isEmpty()) Error.fatal( path + ": no report" );
+        return rows;
+    }
+
+    /** Find the outcomes of one run
+     *  @param rows -- the rows of the report
+     *  @param o -- the outcomes, o[outcome][run]
+     *  @param run -- which run this is
+     */
+    private static void outcomes(
+            ArrayList<int[]> rows, double[][] o, int run
+    ) {
+        final int states = names.length - 2;
+        final int[] last = rows.get( rows.size() - 1 );
+        for (int i = 0; i < states; i++) o[i][run] = last[i];
+
+        // infected means latent through bedridden, states 1 to states-3
+        int peak = -1;
+        int day = 0;
+        for (int d = 0; d < rows.size(); d++) {
+            int infected = 0;
+            for (int i = 1; i <= states - 3; i++) {
+                infected = infected + rows.get( d )[i];
+            }
+            if (infected > peak) {
+                peak = infected;
+                day = d;
+            }
+        }
+        o[states][run] = peak;
+        o[states + 1][run] = day;
+    }
+
+    /** Are two reports the same
+     *  @param a, b -- the rows of the reports
+     *  @return true if every row is the same
+     */
+    private static boolean same( ArrayList<int[]> a, ArrayList<int[]> b ) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals( a.get( i ), b.get( i ) )) return false;
+        }
+        return true;
+    }
+
+    /** @return the mean of x */
+    private static double mean( double[] x ) {
+        double s = 0.0;
+        for (double v: x) s = s + v;
+        return s / x.length;
+    }
+
+    /** @return the sample variance of x, given its mean, 0 if too few */
+    private static double variance( double[] x, double mean ) {
+        if (x.length < 2) return 0.0; // no spread can be seen
+        double s = 0.0;
+        for (double v: x) s = s + (v - mean) * (v - mean);
+        return s / (x.length - 1);
+    }
+
+    /** The regularized incomplete beta function
+     *  @param x -- where to evaluate it, from 0 to 1
+     *  @param a, b -- the parameters
+     *  @return I_x(a,b); for Student's t with df degrees of freedom,
+     *  I_{df/(df+t*t)}(df/2,1/2) is the two sided p value of t
+     *  This uses the continued fraction of Numerical Recipes 6.4.
+     */
+    static double betaRegularized( double x, double a, double b ) {
+        if (x <= 0.0) return 0.0;
+        if (x >= 1.0) return 1.0;
+        final double front = Math.exp( logGamma( a + b ) - logGamma( a )
+                - logGamma( b ) + a * Math.log( x ) + b * Math.log( 1 - x )
+        );
+        if (x < (a + 1) / (a + b + 2)) {
+            return front * betaFraction( x, a, b ) / a;
+        } else {
+            return 1 - front * betaFraction( 1 - x, b, a ) / b;
+        }
+    }
+
+    /** The continued fraction for betaRegularized
+     *  @param x, a, b -- as for betaRegularized
+     *  @return the value of the fraction, by Lentz's method
+     */
+    private static double betaFraction( double x, double a, double b ) {
+        final double tiny = 1e-300;
+        double c = 1.0;
+        double d = 1 - (a + b) * x / (a + 1);
+        if (Math.abs( d ) < tiny) d = tiny;
+        d = 1 / d;
+        double h = d;
+        for (int m = 1; m <= 200; m++) {
+            final int m2 = 2 * m;
+            double aa = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 + aa * d;
+            if (Math.abs( d ) < tiny) d = tiny;
+            c = 1 + aa / c;
+            if (Math.abs( c ) < tiny) c = tiny;
+            d = 1 / d;
+            h = h * d * c;
+            aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 + aa * d;
+            if (Math.abs( d ) < tiny) d = tiny;
+            c = 1 + aa / c;
+            if (Math.abs( c ) < tiny) c = tiny;
+            d = 1 / d;
+            final double del = d * c;
+            h = h * del;
+            if (Math.abs( del - 1 ) < 1e-12) break;
+        }
+        return h;
+    }
+
+    /** The log of the gamma function, by the Lanczos approximation
+     *  @param x -- a positive value
+     *  @return ln(Gamma(x))
+     */
+    private static double logGamma( double x ) {
+        final double[] c = {
+                76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5
+        };
+        double y = x;
+        double tmp = x + 5.5;
+        tmp = tmp - (x + 0.5) * Math.log( tmp );
+        double ser = 1.000000000190015;
+        for (double cj: c) {
+            y = y + 1;
+            ser = ser + cj / y;
+        }
+        return -tmp + Math.log( 2.5066282746310005 * ser / x );
+    }
+}
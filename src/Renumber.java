@@ -0,0 +1,109 @@
+// Renumber.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.util.Arrays;
+
+/** Renumbering of places and people so that those who meet are close
+ *  @see PlaceGraph for the graph ordered
+ *  Elaboration numbers places and people in creation order, which has
+ *  nothing to do with who meets whom.  This renumbers the places in
+ *  reverse Cuthill-McKee order, so places that share people get nearby
+ *  ids, then numbers people in order of their homes, so the residents
+ *  of each home get consecutive ids.
+ *  Everything indexed by id, such as Occupancy, and every list of people
+ *  kept in id order, such as the occupants of each place, then walks
+ *  through memory in order when it walks through a neighbourhood.
+ *  This must be done after all people are put in their places and
+ *  before anything else records their ids.
+ */
+class Renumber {
+    private Renumber() {} // nobody should ever construct a Renumber
+
+    /** Renumber all places and people
+     */
+    public static void renumber() {
+        final int[] placeId = placeOrder( new PlaceGraph() );
+        Place.renumber( placeId );
+
+        // count residents per home, then hand out ids home by home
+        final int people = Person.population();
+        final int[] next = new int[ Place.count() + 1 ];
+        for (int i = 0; i < people; i++) {
+            next[ Person.byIndex( i ).home().id + 1 ]++;
+        }
+        for (int q = 0; q < Place.count(); q++) {
+            next[q + 1] = next[q + 1] + next[q];
+        }
+        final int[] personId = new int[ people ];
+        for (int i = 0; i < people; i++) {
+            final int h = Person.byIndex( i ).home().id;
+            personId[i] = next[h];
+            next[h]++;
+        }
+
+        Person.renumber( personId );
+        Simulator.renumberPeople( personId );
+        Place.sortOccupants();
+    }
+
+    /** Find the reverse Cuthill-McKee order of the places
+     *  @param g -- the graph of places
+     *  @return the new id of each place, by old id
+     *  Each connected piece of the graph is numbered breadth first from
+     *  a place of least degree, taking neighbours in order of degree;
+     *  the whole order is then reversed.
+     */
+    private static int[] placeOrder( PlaceGraph g ) {
+        final int places = g.places();
+
+        // places sorted by degree, packed as degree << 32 | id, for roots
+        final long[] byDegree = new long[ places ];
+        for (int q = 0; q < places; q++) {
+            byDegree[q] = ((long)g.degree( q ) << 32) | q;
+        }
+        Arrays.sort( byDegree );
+
+        final int[] queue = new int[ places ];
+        final boolean[] seen = new boolean[ places ];
+        long[] scratch = new long[ 16 ];
+        int head = 0;
+        int tail = 0;
+        for (long r: byDegree) {
+            final int root = (int)r;
+            if (seen[root]) continue;
+            seen[root] = true;
+            queue[tail] = root;
+            tail = tail + 1;
+            while (head < tail) {
+                final int q = queue[head];
+                head = head + 1;
+
+                // gather the unseen neighbours and take them by degree
+                if (scratch.length < g.degree( q )) {
+                    scratch = new long[ g.degree( q ) ];
+                }
+                int n = 0;
+                for (int j = g.start[q]; j < g.start[q + 1]; j++) {
+                    final int v = g.neighbour[j];
+                    if (!seen[v]) {
+                        seen[v] = true;
+                        scratch[n] = ((long)g.degree( v ) << 32) | v;
+                        n = n + 1;
+                    }
+                }
+                Arrays.sort( scratch, 0, n );
+                for (int i = 0; i < n; i++) {
+                    queue[tail] = (int)scratch[i];
+                    tail = tail + 1;
+                }
+            }
+        }
+
+        final int[] newId = new int[ places ];
+        for (int i = 0; i < places; i++) newId[ queue[i] ] = places - 1 - i;
+        return newId;
+    }
+}
@@ -59,7 +59,10 @@ class Role {
 
             // is placeName followed a schedule?
             if (in.tryNextLiteral( MyScanner.beginParen )) {
-                s = new Schedule( in, ()-> this.describe() + " " + placeName );
+                s = new Schedule( in,
+                        ()-> this.describe() + " " + placeName,
+                        name + "." + placeName
+                );
             }
 
             // was it a real place name?
@@ -142,12 +145,35 @@ class Role {
         return null; // role not found
     }
 
+    /** Does this role visit some kind of place
+     *  @param pk -- the kind of place
+     *  @return true if people in this role are associated with pk
+     */
+    public boolean visits( PlaceKind pk ) {
+        for (PlaceSchedule ps: placeKinds) {
+            if (ps.placeKind == pk) return true;
+        }
+        return false;
+    }
+
+    /** Find the schedule this role follows for some kind of place
+     *  @param pk -- the kind of place
+     *  @return the schedule, or null if pk is the home (or not visited)
+     */
+    public Schedule scheduleFor( PlaceKind pk ) {
+        for (PlaceSchedule ps: placeKinds) {
+            if (ps.placeKind == pk) return ps.schedule;
+        }
+        return null;
+    }
+
     /** Create the total population, divided up by roles in
      *  @param population -- the total population to be created
      *  @param infected -- the total number of initially infected people
      *  The math here divides the population in the ratio of the numbers
      *  given for each role.
      *  It is critical that this not be done until all roles are known.
+     *  This does not put people in places, see PlaceKind.distributePeople.
      */
     public static void populateRoles( int population, int infected ) {
         int pop = population; // working copy used only in infection decisions
@@ -165,7 +191,7 @@ class Role {
 
                 // the ratio inf/pop is probability this person is infected
                 if (rand.nextFloat() < ((float)inf / (float)pop)) {
-                    p.infect( 0.0 );
+                    p.infectNow( 0.0 );
                     inf = inf - 1;
                 }
                 pop = pop - 1;
@@ -177,9 +203,12 @@ class Role {
                 }
             }
         }
+    }
 
-        // finish putting people in their places
-        // this actually creates the places and puts people in them
-        PlaceKind.distributePeople();
+    /** Forget all roles, ready for a new model
+     */
+    public static void reset() {
+        sum = 0.0F;
+        allRoles.clear();
     }
-}
\ No newline at end of file
+}
@@ -4,26 +4,43 @@
  * version Apr. 11, 2021 Lifted from Epidemic.java
  */
 
+import java.util.ArrayList;
+
 /** Tuple of start and end times used for scheduling people's visits to places
  */
 class Schedule {
     // instance variables
+    public final int id;           // index of this schedule in allSchedules
     public final double startTime; // times are in seconds
     public final double duration;  // duration of visit
     public final double probability; //probability schedule followed
+    private final int week;        // bit d set if followed on weekday d
+    private int[] except;          // first, last pairs of days not followed
+    private long[] calendar = null; // bit d set if followed on day d, or null
+
+    // names of the days of the week; day 0 of the simulation is a monday
+    private static final String[] weekdays = {
+        "mon", "tue", "wed", "thu", "fri", "sat", "sun"
+    };
+    private static final int everyDay = (1 << weekdays.length) - 1;
 
     private static final MyRandom rand = MyRandom.stream();
+    private static final ArrayList<Schedule> allSchedules = new ArrayList<>();
 
     /** construct a new Schedule
      *  @param in -- the input stream
      *  @param context -- the context for error messages
-     *  Syntax: (0.0-0.0 0.0)
+     *  @param name -- role.kind naming this schedule, see Parameters
+     *  Syntax: (0.0-0.0 0.0 days)
      *  Meaning: (start-end) times given in hours from midnight
-     *  The last float is an optional probability of the schedule
+     *  The float after the times is an optional probability of the schedule
      *  Default probability = 1.0
+     *  The days are optional, as in mon-fri sat or mon wed except 3 10-12,
+     *  naming the days of the week when the schedule is followed, every day
+     *  if none, and then the days of the simulation when it is not.
      *  The begin paren must just have been scanned from the input stream
      */
-    public Schedule( MyScanner in, MyScanner.Message context ) {
+    public Schedule( MyScanner in, MyScanner.Message context, String name ) {
 
         // get start time of schedule
         final double st = in.getNextFloat(
@@ -44,11 +61,58 @@ class Schedule {
                 + "(" + st + "-" + et +
                 " not followed by probability. Defaulted to 1.0");
 
-        in.getNextLiteral(
-                MyScanner.endParen,
-                ()-> context.myString() + "(" + st + "-" + et +
-                        prob + ": not followed by )"
+        // get the days, if any, up to the end paren
+        int days = 0;
+        final ArrayList<Integer> except = new ArrayList<>(); // first, last
+        boolean excepting = false;
+        boolean hasNext = in.hasNext(); // needed below for missing paren
+        while (hasNext && !in.tryNextLiteral( MyScanner.endParen )) {
+            if (in.hasNext( ";.*" )) { // leave it to end the role
+                hasNext = false;
+                break;
+            }
+            if (in.hasNext( "except([^0-9A-Za-z].*)?" )) { // or "except)"
+                in.getNextName( "except", ()-> context.myString() );
+                excepting = true;
+            } else if (in.hasNext( "[0-9].*" )) {
+                final int first = in.getNextInt( 0, ()-> context.myString() );
+                int last = first;
+                if (in.tryNextLiteral( MyScanner.dash )) {
+                    last = in.getNextInt( first, ()-> context.myString()
+                            + "(" + st + "-" + et + " ... " + first
+                            + "-: not followed by day"
+                    );
+                }
+                if (!excepting) Error.warn( context.myString()
+                        + "(" + st + "-" + et + " ... " + first
+                        + ": day number not after except?"
+                );
+                except.add( first );
+                except.add( last );
+            } else {
+                final int first = weekday( in, context );
+                int last = first;
+                if (in.tryNextLiteral( MyScanner.dash )) {
+                    last = weekday( in, context );
+                }
+                if (excepting) Error.warn( context.myString()
+                        + "(" + st + "-" + et + " ... except "
+                        + weekdays[first] + ": day number expected?"
+                );
+                // ranges may wrap past the end of the week, as in fri-mon
+                int d = first;
+                while (true) {
+                    days = days | (1 << d);
+                    if (d == last) break;
+                    d = (d + 1) % weekdays.length;
+                }
+            }
+            hasNext = in.hasNext();
+        }
+        if (!hasNext) Error.warn( context.myString() + "(" + st + "-" + et
+                + prob + ": not followed by )"
         );
+        if (days == 0) days = everyDay;
 
         // check sanity constraints on start and end times
         if (st >= 24.00F) {
@@ -81,69 +145,258 @@ class Schedule {
 
         startTime = st * Time.hour;
         duration = (et * Time.hour) - startTime;
-        probability = prob;
+        probability = Parameters.get( "probability." + name, prob );
+        week = days;
+        this.except = new int[ except.size() ];
+        for (int i = 0; i < this.except.length; i++) {
+            this.except[i] = except.get( i );
+        }
+
+        id = allSchedules.size();
+        allSchedules.add( this ); // include this in the list of all
+    }
+
+    /** get the next name of a day of the week from the scanner
+     *  @param in -- the input stream
+     *  @param context -- the context for error messages
+     *  @return the day, 0 for mon up to 6 for sun, or 0 if not a day
+     */
+    private static int weekday( MyScanner in, MyScanner.Message context ) {
+        final String n = in.getNextName(
+                "???", ()-> context.myString() + "(...: day expected"
+        );
+        for (int d = 0; d < weekdays.length; d++) {
+            if (weekdays[d].equals( n )) return d;
+        }
+        Error.warn( context.myString() + "(... " + n + ": not a day?" );
+        return 0;
+    }
+
+    /** compile the days every schedule is followed, see compile
+     *  @param end -- the end of time, in seconds
+     *  This must be called once the model is read, before anyone follows
+     *  a schedule; until then the end of time may not be known.
+     */
+    public static void compileAll( double end ) {
+        final int lastDay = (int)Math.min(
+                Math.ceil( end / Time.day ) - 1, Integer.MAX_VALUE
+        );
+        for (Schedule s: allSchedules) s.compile( lastDay );
+    }
+
+    /** compile the days this schedule is followed to a bitmask
+     *  @param lastDay -- the last day of the simulation
+     *  The calendar runs up to the last exception, and past it only the
+     *  days of the week matter.  Exceptions after lastDay can never
+     *  matter, so they are left out, and the calendar is no longer than
+     *  the simulation, however late the days given after except.
+     */
+    private void compile( int lastDay ) {
+        int last = -1;
+        for (int i = 0; i < except.length; i = i + 2) {
+            if (except[i] <= lastDay) {
+                last = Math.max( last, Math.min( except[i + 1], lastDay ) );
+            }
+        }
+        if (last >= 0) {
+            final long[] c = new long[ (last >> 6) + 1 ];
+            for (int d = 0; d < (c.length << 6); d++) {
+                if ((week & (1 << (d % weekdays.length))) != 0) {
+                    c[d >> 6] = c[d >> 6] | (1L << d);
+                }
+            }
+            for (int i = 0; i < except.length; i = i + 2) {
+                final int to = Math.min( except[i + 1], last );
+                for (int d = except[i]; d <= to; d++) {
+                    c[d >> 6] = c[d >> 6] & ~(1L << d);
+                }
+            }
+            calendar = c;
+        }
+        except = null; // no longer needed
+    }
+
+    /** is this schedule followed on a day
+     *  @param day -- the day of the simulation, counting from 0
+     *  @return true if a visit starts on that day
+     */
+    private boolean onDay( long day ) {
+        if (day < 0) return false;
+        if ((calendar != null) && (day < ((long)calendar.length << 6))) {
+            return (calendar[(int)(day >> 6)] & (1L << day)) != 0;
+        }
+        return (week & (1 << (int)(day % weekdays.length))) != 0;
+    }
+
+    /** Find a schedule by its id
+     *  @param i -- the id of the schedule
+     *  @return the schedule
+     */
+    public static Schedule byIndex( int i ) {
+        return allSchedules.get( i );
     }
 
     /** compare two schedules to see if they overlap
      *  @return true if they overlap, false otherwise
+     *  A window that wraps past midnight may overlap the other schedule's
+     *  window of the next day, as (22-26 fri) does (1-3 sat).
      */
     public boolean overlap( Schedule s ) {
         if (s == null) return false;
-        double thisEnd = this.startTime + this.duration;
-        if (this.startTime <= s.startTime) {
-            if (s.startTime <= (this.startTime + this.duration)) return true;
-        }
-        double sEnd = s.startTime + s.duration;
-        if (s.startTime <= this.startTime) {
-            if (this.startTime <= (s.startTime + s.duration)) return true;
-        }
-        return false;
+        return overlap( this, s, 0 ) || overlap( this, s, 1 )
+                || overlap( s, this, 1 );
+    }
+
+    /** does the window of one schedule overlap that of another days later
+     *  @param a -- the schedule whose window comes first
+     *  @param b -- the other schedule
+     *  @param later -- how many days after a's window b's window starts
+     *  @return true if they overlap on some day both are followed
+     *  Windows that only touch count as overlapping.
+     */
+    private static boolean overlap( Schedule a, Schedule b, int later ) {
+        // the days of the week a's window is followed later days before
+        final int n = weekdays.length;
+        final int days = ((a.week << later) | (a.week >>> (n - later)))
+                & everyDay;
+        if ((days & b.week) == 0) return false; // never on such days
+        final double bStart = b.startTime + later * Time.day;
+        return (a.startTime <= bStart + b.duration)
+                && (bStart <= a.startTime + a.duration);
     }
 
     /** determines whether the schedule will be followed
      * @return true if follow schedule, false if ignore
      */
     public boolean follow() {
-        return rand.nextFloat() <= probability;
+        return follow( rand );
+    }
+
+    /** determines whether the schedule will be followed
+     * @param r -- the stream to draw from, see MyRandom.stream
+     * @return true if follow schedule, false if ignore
+     */
+    public boolean follow( MyRandom r ) {
+        return r.nextFloat() <= probability;
+    }
+
+    /** is a time within the window of this schedule on one of its days
+     *  @param time -- the time
+     *  @return true if the time falls between the start and end of a visit
+     *  This says nothing about whether the schedule is followed.
+     */
+    public boolean contains( double time ) {
+        final long day = (long)(time / Time.day);
+        final double timeOfDay = time % Time.day;
+        final double end = startTime + duration;
+        if ((timeOfDay >= startTime) && (timeOfDay < end)) return onDay( day );
+        // window wraps past midnight, from a visit that started yesterday
+        return ((timeOfDay + Time.day) < end) && onDay( day - 1 );
+    }
+
+    /** when did the visit on this schedule that contains a time start
+     *  @param time -- the time, within a visit, see contains
+     *  @return the start of that visit
+     */
+    public double visitStart( double time ) {
+        double start = (time - (time % Time.day)) + startTime;
+        if (start > time) start = start - Time.day;
+        return start;
+    }
+
+    /** when does the next visit on this schedule start
+     *  @param time -- the earliest possible start
+     *  @return the first start time at or after time on one of its days
+     *  Days when this schedule is not followed are skipped here, so no
+     *  event is ever scheduled for them.
+     */
+    public double nextStart( double time ) {
+        double start = (time - (time % Time.day)) + startTime;
+        if (start < time) start = start + Time.day;
+        while (!onDay( (long)(start / Time.day) )) start = start + Time.day;
+        return start;
     }
 
     /** commit a person to following a schedule regarding a place
+     *  @param time -- the time at which the person begins to follow it
      *  @param person
-     *  @param place
+     *  @param visit -- which of the person's visits this is, see Person.go
+     *  @param epoch -- the person's movement epoch, see Person.keepMoving
      *  this starts the logical process of making a person follow this schedule
+     *  If time falls within a visit the person must already be at the place,
+     *  so only the trip home is scheduled for that visit.
      */
-    public void apply( Person person, Place place ) {
-        //will the schedule be followed
-        if (follow()) {
-            Simulator.schedule(startTime, (double t) -> go(t, person, place));
+    public void start( double time, Person person, int visit, int epoch ) {
+        final double next = nextStart( time );
+        if ((next != time) && contains( time )) {
+            final double end = time + duration
+                    - ((time - startTime + Time.day) % Time.day);
+            Simulator.schedule( end, Simulator.GO_HOME, person.id, epoch );
         }
+        Simulator.schedule(
+                next, Simulator.GO, person.id, goOperand( visit, epoch )
+        );
+    }
+
+    /** pack the operand of a GO event
+     *  @param visit -- which of the person's visits
+     *  @param epoch -- the person's movement epoch
+     *  @return the operand, see Simulator.dispatch
+     */
+    private static long goOperand( int visit, int epoch ) {
+        return ((long)epoch << 32) | visit;
     }
 
     /** keep a person on schedule
      *  @param person
+     *  @param visit -- which of the person's visits this is
      *  @param place
+     *  @param epoch -- the person's movement epoch when this was scheduled
      *  this continues a logical process of moving a person on this schedule
      */
-    private void go( double time, Person person, Place place ) {
-        double tomorrow = time + Time.day;
+    void go( double time, Person person, int visit, Place place, int epoch ) {
+        // first, quit if the person no longer moves on this schedule
+        if (!person.keepMoving( time, epoch )) return;
 
-        // first, ensure that we keep following this schedule
-        Simulator.schedule( tomorrow, (double t)-> go( t, person, place ) );
+        // second, ensure that we keep following this schedule
+        Simulator.schedule(
+                nextStart( time + Time.day ), Simulator.GO, person.id,
+                goOperand( visit, epoch )
+        );
+
+        // a closed place takes no visitors today, see Intervention
+        if (place.isClosedAt( time )) return;
 
-        // second, make the person go there
+        // third, make the person go there
         person.travelTo( time, place );
 
-        // third, make sure we get home
-        Simulator.schedule( time + duration, (double t)-> person.goHome( t ) );
+        // fourth, make sure we get home
+        Simulator.schedule(
+                time + duration, Simulator.GO_HOME, person.id, epoch
+        );
     }
 
     /** convert a Schedule back to textual form
      *  @return the schedule as a string
-     *  Syntax: (0.0-0.0)
+     *  Syntax: (0.0-0.0 days)
      *  Meaning: (start-end) times given in hours from midnight
+     *  The days of the week are given only if not every day, and the
+     *  days of the simulation when it is not followed are not given.
      */
     public String toString() {
+        String days = "";
+        if (week != everyDay) {
+            for (int d = 0; d < weekdays.length; d++) {
+                if ((week & (1 << d)) != 0) days = days + " " + weekdays[d];
+            }
+        }
         return "(" + startTime/Time.hour
-                + "-" + (startTime + duration) / Time.hour + ")";
+                + "-" + (startTime + duration) / Time.hour + days + ")";
+    }
+
+    /** Forget all schedules, ready for a new model
+     */
+    public static void reset() {
+        allSchedules.clear();
     }
-}
\ No newline at end of file
+}
@@ -4,9 +4,37 @@
  * version Apr. 11, 2021 Lifted from Epidemic.java
  */
 
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /** Framework for discrete event simulation
+ *  Each event is a time, a kind and two operands; the kind selects a
+ *  service routine in dispatch, so the common events of the model cost
+ *  no allocation and no megamorphic call.  Rare or custom events are
+ *  scheduled as an Action, typically a lambda expression, with the kind
+ *  ACTION.
+ *
+ *  Times are rounded to whole ticks of the clock, see Time, and events
+ *  are triggered in a total order: by tick, then by priority, then by
+ *  sequence.  Reports have a later priority than everything else, so
+ *  they see all that happens at their tick.  So the events at any one
+ *  time and priority form a well defined batch, and a run from a given
+ *  seed triggers the same events in the same order every time.
+ *
+ *  Within a batch, the order is a fixed shuffle: events are triggered in
+ *  order of a hash of the sequence number each got when scheduled.  The
+ *  model is sensitive to the order of ties, for example a susceptible
+ *  person arriving home just after a contagious one is not swept, and
+ *  triggering ties in the order scheduled would bias every run the same
+ *  way.  Events added to a batch while it is being triggered come last.
+ *
+ *  The events of each batch are kept in a list and a binary heap orders
+ *  the batches.  Schedules make great numbers of people move at exactly
+ *  the same times, so most events join a batch that already exists and
+ *  the heap only sees the first of them.
+ *
+ *  With -threads, each burst of movements at the head of a batch is
+ *  dispatched all at once, see Parallel.
  */
 class Simulator {
     private Simulator() {} // prevent construction of instances!  Don't call!
@@ -19,18 +47,47 @@ class Simulator {
         void trigger( double time );
     }
 
-    private static class Event {
-        public final double time; // when will this event occur
-        public final Action act;  // what to do then
-        public Event( double t, Action a ) {
-            time = t;
-            act = a;
-        }
-    }
+    // the kinds of events, see dispatch for what each operand means
+    public static final int ACTION = 0;   // act.trigger( time )
+    public static final int GO = 1;       // person, visit | epoch << 32
+    public static final int GO_HOME = 2;  // person, epoch
+    public static final int INFECT = 3;   // person
+    public static final int PROGRESS = 4; // -, Progression bucket key
+    public static final int REPORT = 5;   // report population statistics
+    public static final int CROWD = 6;    // place, draw
+
+    // events are kept in parallel arrays, linked by next into batches;
+    // unused slots are linked by next into a free list
+    private static int size = 0;          // events waiting
+    private static int used = 0;          // slots ever used
+    private static int free = -1;         // first free slot, -1 if none
+    private static int[] kinds = new int[ 1024 ];
+    private static int[] as = new int[ 1024 ];
+    private static long[] bs = new long[ 1024 ];
+    private static Action[] acts = new Action[ 1024 ];
+    private static int[] nexts = new int[ 1024 ];
+    private static long[] orders = new long[ 1024 ]; // see shuffle
+    private static long sequence = 0;     // events scheduled since reset
+
+    // batches, each the first and last event of a list, -1 if empty,
+    // and whether it was shuffled; the key of a batch is tick * 2 +
+    // priority; unused batches are linked by heads into a free list
+    private static int batchesUsed = 0;
+    private static int freeBatch = -1;
+    private static int[] heads = new int[ 256 ];
+    private static int[] tails = new int[ 256 ];
+    private static boolean[] shuffled = new boolean[ 256 ];
+
+    // the batches waiting, a heap ordered by key, slot 0 is next
+    private static int heapSize = 0;
+    private static long[] heapKeys = new long[ 256 ];
+    private static int[] heapBatches = new int[ 256 ];
 
-    private static final PriorityQueue<Event> eventSet = new PriorityQueue<>(
-            ( Event e1, Event e2 )-> Double.compare( e1.time, e2.time )
-    );
+    // the batches waiting, by key, an open addressed hash table
+    private static final long EMPTY = -1;
+    private static int tableSize = 0;
+    private static long[] tableKeys = emptyTable( 512 );
+    private static int[] tableBatches = new int[ 512 ];
 
     /** Schedule an event to occur at a future time
      *  @param t, the time of the event
@@ -41,17 +98,634 @@ class Simulator {
      *  </pre>
      */
     public static void schedule( double t, Action a ) {
-        eventSet.add( new Event( t, a ) );
+        add( t, ACTION, 0, 0, a );
+    }
+
+    /** Schedule an event of some kind to occur at a future time
+     *  @param t, the time of the event
+     *  @param kind, what kind of event, GO, INFECT etc
+     *  @param a, the first operand, usually an id
+     *  @param b, the second operand
+     *  example:
+     *  <pre>
+     *    Simulator.schedule( now+later, Simulator.INFECT, person.id, 0 );
+     *  </pre>
+     */
+    public static void schedule( double t, int kind, int a, long b ) {
+        add( t, kind, a, b, null );
+    }
+
+    /** Trigger an event
+     *  @param time, kind, a, b, act -- the event
+     */
+    static void dispatch(
+            double time, int kind, int a, long b, Action act
+    ) {
+        Person p; // null for people forgotten, see Person.discard
+        switch (kind) {
+        case GO:
+            p = Person.byIndex( a );
+            if (p != null) p.go( time, (int)b, (int)(b >>> 32) );
+            break;
+        case GO_HOME:
+            p = Person.byIndex( a );
+            if (p != null) p.goHome( time, (int)b );
+            break;
+        case INFECT:
+            p = Person.byIndex( a );
+            if (p != null) p.infect( time );
+            break;
+        case PROGRESS:
+            Progression.drain( time, b );
+            break;
+        case REPORT:
+            Person.report( time );
+            break;
+        case CROWD:
+            Place.byIndex( a ).infectSomeone( time, b );
+            break;
+        default:
+            act.trigger( time );
+        }
+    }
+
+    /** Add an event to the event set
+     *  @param t, kind, a, b, act -- the event
+     */
+    private static void add( double t, int kind, int a, long b, Action act ) {
+        if (Parallel.isHolding()) { // the groups of a burst are running
+            Parallel.hold( t, kind, a, b, act );
+            return;
+        }
+        final long key = Time.toTicks( t ) * 2 + ((kind == REPORT) ? 1 : 0);
+        int batch = find( key );
+        if (batch < 0) batch = newBatch( key );
+
+        int e = free;
+        if (e >= 0) {
+            free = nexts[e];
+        } else {
+            if (used == kinds.length) { // grow, doubling the size
+                final int n = 2 * used;
+                kinds = Arrays.copyOf( kinds, n );
+                as = Arrays.copyOf( as, n );
+                bs = Arrays.copyOf( bs, n );
+                acts = Arrays.copyOf( acts, n );
+                nexts = Arrays.copyOf( nexts, n );
+                orders = Arrays.copyOf( orders, n );
+            }
+            e = used;
+            used = used + 1;
+        }
+        kinds[e] = kind;
+        as[e] = a;
+        bs[e] = b;
+        acts[e] = act;
+        nexts[e] = -1;
+        orders[e] = MyRandom.substreamSeed( 0, sequence );
+        sequence = sequence + 1;
+
+        if (heads[batch] < 0) {
+            heads[batch] = e;
+        } else {
+            nexts[ tails[batch] ] = e;
+        }
+        tails[batch] = e;
+        size = size + 1;
+    }
+
+    /** Make a new, empty batch and add it to the heap and table
+     *  @param key -- the key of the batch
+     *  @return the batch
+     */
+    private static int newBatch( long key ) {
+        int batch = freeBatch;
+        if (batch >= 0) {
+            freeBatch = heads[batch];
+        } else {
+            if (batchesUsed == heads.length) { // grow, doubling the size
+                heads = Arrays.copyOf( heads, 2 * batchesUsed );
+                tails = Arrays.copyOf( tails, 2 * batchesUsed );
+                shuffled = Arrays.copyOf( shuffled, 2 * batchesUsed );
+            }
+            batch = batchesUsed;
+            batchesUsed = batchesUsed + 1;
+        }
+        heads[batch] = -1;
+        shuffled[batch] = false;
+        insert( key, batch );
+
+        if (heapSize == heapKeys.length) { // grow, doubling the size
+            heapKeys = Arrays.copyOf( heapKeys, 2 * heapSize );
+            heapBatches = Arrays.copyOf( heapBatches, 2 * heapSize );
+        }
+
+        // sift the hole at the end up to where the new batch belongs
+        int i = heapSize;
+        heapSize = heapSize + 1;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (heapKeys[parent] < key) break;
+            heapKeys[i] = heapKeys[parent];
+            heapBatches[i] = heapBatches[parent];
+            i = parent;
+        }
+        heapKeys[i] = key;
+        heapBatches[i] = batch;
+        return batch;
+    }
+
+    /** Remove the first batch, now empty, from the heap and table
+     *  The last batch is sifted down into the hole left at the root.
+     */
+    private static void removeFirstBatch() {
+        final int batch = heapBatches[0];
+        remove( heapKeys[0] );
+        heads[batch] = freeBatch;
+        freeBatch = batch;
+
+        heapSize = heapSize - 1;
+        final long key = heapKeys[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if ((child + 1 < heapSize)
+                    && (heapKeys[child + 1] < heapKeys[child])
+            ) {
+                child = child + 1;
+            }
+            if (key < heapKeys[child]) break;
+            heapKeys[i] = heapKeys[child];
+            heapBatches[i] = heapBatches[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapBatches[i] = heapBatches[heapSize];
+    }
+
+    // scratch space for shuffle
+    private static long[] scratch = new long[ 1024 ];
+    private static int[] slots = new int[ 1024 ];
+
+    /** Put a batch in the order its events are triggered
+     *  @param batch -- the batch
+     *  The events are sorted by the high half of their orders, with their
+     *  places in the batch in the low half, so ties keep the order they
+     *  were scheduled in, whatever slots they have, and this costs no
+     *  allocation.
+     */
+    private static void shuffle( int batch ) {
+        shuffled[batch] = true;
+        int n = 0;
+        for (int e = heads[batch]; e >= 0; e = nexts[e]) {
+            if (n == scratch.length) { // grow, doubling the size
+                scratch = Arrays.copyOf( scratch, 2 * n );
+                slots = Arrays.copyOf( slots, 2 * n );
+            }
+            scratch[n] = (orders[e] & 0xFFFFFFFF00000000L) | n;
+            slots[n] = e;
+            n = n + 1;
+        }
+        if (n < 2) return;
+        Arrays.sort( scratch, 0, n );
+        for (int i = 0; i < n - 1; i++) {
+            nexts[ slots[ (int)scratch[i] ] ] = slots[ (int)scratch[i + 1] ];
+        }
+        heads[batch] = slots[ (int)scratch[0] ];
+        tails[batch] = slots[ (int)scratch[n - 1] ];
+        nexts[ tails[batch] ] = -1;
+    }
+
+    /** Make an empty hash table
+     *  @param n -- its size, a power of two
+     *  @return the keys of the table, all EMPTY
+     */
+    private static long[] emptyTable( int n ) {
+        final long[] keys = new long[ n ];
+        Arrays.fill( keys, EMPTY );
+        return keys;
+    }
+
+    /** Hash a key
+     *  @param key -- the key of a batch
+     *  @return where to start looking for it in the table
+     */
+    private static int hash( long key ) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 32)
+                & (tableKeys.length - 1);
+    }
+
+    /** Find a batch in the table
+     *  @param key -- the key of the batch
+     *  @return the batch, or -1 if there is none with that key
+     */
+    private static int find( long key ) {
+        final int mask = tableKeys.length - 1;
+        int i = hash( key );
+        while (tableKeys[i] != EMPTY) {
+            if (tableKeys[i] == key) return tableBatches[i];
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** Put a batch in the table
+     *  @param key -- the key of the batch, not already there
+     *  @param batch -- the batch
+     */
+    private static void insert( long key, int batch ) {
+        if (2 * (tableSize + 1) > tableKeys.length) { // grow, rehashing
+            final long[] oldKeys = tableKeys;
+            final int[] oldBatches = tableBatches;
+            tableKeys = emptyTable( 2 * oldKeys.length );
+            tableBatches = new int[ 2 * oldKeys.length ];
+            tableSize = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) insert( oldKeys[i], oldBatches[i] );
+            }
+        }
+        final int mask = tableKeys.length - 1;
+        int i = hash( key );
+        while (tableKeys[i] != EMPTY) i = (i + 1) & mask;
+        tableKeys[i] = key;
+        tableBatches[i] = batch;
+        tableSize = tableSize + 1;
+    }
+
+    /** Take a batch out of the table
+     *  @param key -- the key of the batch, which must be there
+     *  Later keys that probed past the hole are shifted back into it.
+     */
+    private static void remove( long key ) {
+        final int mask = tableKeys.length - 1;
+        int i = hash( key );
+        while (tableKeys[i] != key) i = (i + 1) & mask;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (tableKeys[j] == EMPTY) break;
+            final int home = hash( tableKeys[j] );
+            final boolean stays = (i <= j)
+                    ? ((i < home) && (home <= j))
+                    : ((i < home) || (home <= j));
+            if (!stays) { // j would not be found past the hole at i
+                tableKeys[i] = tableKeys[j];
+                tableBatches[i] = tableBatches[j];
+                i = j;
+            }
+        }
+        tableKeys[i] = EMPTY;
+        tableSize = tableSize - 1;
+    }
+
+    /** Give new ids to the people named by pending events
+     *  @param newId -- the new id of each person, by old id
+     *  @see Renumber
+     */
+    static void renumberPeople( int[] newId ) {
+        for (int i = 0; i < heapSize; i++) {
+            for (int e = heads[ heapBatches[i] ]; e >= 0; e = nexts[e]) {
+                if ((kinds[e] == GO) || (kinds[e] == GO_HOME)
+                        || (kinds[e] == INFECT)
+                ) {
+                    as[e] = newId[ as[e] ];
+                }
+            }
+        }
+    }
+
+    /** Hooks called around each run of the simulation
+     *  Parts of the model that need to know when a run begins or ends,
+     *  or that buffer output, register one of these with addLifecycle.
+     */
+    public static interface Lifecycle {
+        /** called before the first event of a run
+         *  @param time -- the time of the first event
+         */
+        default void beforeRun( double time ) {}
+
+        /** called after the last event of a run
+         *  @param time -- the time of the last event
+         */
+        default void afterRun( double time ) {}
+
+        /** called after afterRun; push out anything buffered */
+        default void flush() {}
+    }
+
+    private static final ArrayList<Lifecycle> hooks = new ArrayList<>();
+
+    /** Register lifecycle hooks
+     *  @param h -- the hooks, called in order of registration
+     */
+    public static void addLifecycle( Lifecycle h ) {
+        hooks.add( h );
+    }
+
+    // set by stop() to end the run
+    private static boolean stopped = false;
+
+    // time of the event most recently triggered
+    private static double now = 0.0;
+
+    // events triggered since the program started
+    private static long eventCount = 0;
+
+    // events per batch for progress reports, a power of two
+    private static final long batchSize = 4096;
+
+    /** How many events have been triggered
+     *  @return the count, over all runs
+     */
+    public static long eventCount() {
+        return eventCount;
+    }
+
+    /** How many events are waiting
+     *  @return the size of the event set
+     */
+    public static int pending() {
+        return size;
+    }
+
+    /** Get the time of the next event
+     *  @return the time, or infinity if no events are waiting
+     */
+    public static double next() {
+        if (size == 0) return Double.POSITIVE_INFINITY;
+        return Time.fromTicks( heapKeys[0] >> 1 );
+    }
+
+    /** Get the current time
+     *  @return the time of the event being, or most recently, triggered
+     */
+    public static double now() {
+        return now;
     }
 
     /** Run the simulation
      *  Before running the simulation, schedule the initial events
      *  all of the simulation occurs as side effects of scheduled events
+     *  This returns when no events remain or when an event calls stop().
      */
     public static void run() {
-        while (!eventSet.isEmpty()) {
-            Event e = eventSet.remove();
-            e.act.trigger( e.time );
+        run( Double.POSITIVE_INFINITY );
+    }
+
+    /** Run the simulation up to some time
+     *  @param untilTime -- events at or after this time are not triggered
+     *  This returns when no earlier events remain or when an event calls
+     *  stop().  Events not triggered stay in the event set, so the run
+     *  may be continued by calling run again.  The time is rounded to a
+     *  tick just as the times of events are, see Time.toTicks, so an event
+     *  scheduled for untilTime is always left for the next run.
+     */
+    public static void run( double untilTime ) {
+        runUntil( (untilTime == Double.POSITIVE_INFINITY)
+                ? Long.MAX_VALUE
+                : 2 * Time.toTicks( untilTime )
+        );
+    }
+
+    /** Run the simulation up to some tick
+     *  @param untilTick -- events at or after this tick are not triggered
+     *  This is run( untilTime ) for callers that count in ticks, see Time.
+     */
+    static void runTicks( long untilTick ) {
+        runUntil( 2 * untilTick );
+    }
+
+    /** Run the simulation up to some key, see run
+     *  @param untilKey -- batches with this key or later are not triggered
+     */
+    private static void runUntil( long untilKey ) {
+        stopped = false;
+        for (Lifecycle h: hooks) h.beforeRun( now );
+        Flight.Dispatch batch = Flight.dispatched( null, eventCount );
+        while (!stopped && (size > 0) && (heapKeys[0] < untilKey)) {
+            final long key = heapKeys[0];
+            final int e = take();
+            final int kind = kinds[e];
+            final int a = as[e];
+            final long b = bs[e];
+            final Action act = acts[e];
+            release( e );
+
+            now = Time.fromTicks( key >> 1 );
+            if (Trace.isEnabled()) Trace.event( now, kind, a, b );
+            if (((kind == GO) || (kind == GO_HOME)) && Parallel.isEnabled()) {
+                // take the whole burst of movements at the head of the batch
+                Parallel.add( kind, a, b );
+                int n = 1;
+                while ((size > 0) && (heapKeys[0] == key)
+                        && isMovement( heads[ heapBatches[0] ] )
+                ) {
+                    final int f = take();
+                    if (Trace.isEnabled()) {
+                        Trace.event( now, kinds[f], as[f], bs[f] );
+                    }
+                    Parallel.add( kinds[f], as[f], bs[f] );
+                    release( f );
+                    n = n + 1;
+                }
+                Parallel.run( now );
+                for (int i = 0; i < n; i++) batch = counted( batch );
+            } else {
+                dispatch( now, kind, a, b, act );
+                batch = counted( batch );
+            }
         }
+        if (Metrics.isEnabled()) Metrics.publish();
+        Flight.dispatched( batch, eventCount );
+        for (Lifecycle h: hooks) h.afterRun( now );
+        for (Lifecycle h: hooks) h.flush();
+    }
+
+    /** Take the next event out of its batch
+     *  @return the slot of the event, to be released once it is read
+     */
+    private static int take() {
+        final int first = heapBatches[0];
+        if (!shuffled[first]) shuffle( first );
+        final int e = heads[first];
+        heads[first] = nexts[e];
+        if (heads[first] < 0) removeFirstBatch();
+        return e;
+    }
+
+    /** Free the slot of an event taken
+     *  @param e -- the slot
+     */
+    private static void release( int e ) {
+        acts[e] = null; // don't hold on to actions
+        nexts[e] = free;
+        free = e;
+        size = size - 1;
+    }
+
+    /** Is an event a movement
+     *  @param e -- the slot of the event
+     *  @return true if the event is a GO or GO_HOME, see Parallel
+     */
+    private static boolean isMovement( int e ) {
+        return (kinds[e] == GO) || (kinds[e] == GO_HOME);
+    }
+
+    /** Count a triggered event
+     *  @param batch -- the flight recorder batch under way
+     *  @return the batch under way after this event
+     */
+    private static Flight.Dispatch counted( Flight.Dispatch batch ) {
+        eventCount = eventCount + 1;
+        if ((eventCount & (batchSize - 1)) == 0) { // end of a batch
+            if (Metrics.isEnabled()) Metrics.publish();
+            return Flight.dispatched( batch, eventCount );
+        }
+        return batch;
+    }
+
+    /** Stop the simulation
+     *  The run returns as soon as the current event is done.
+     *  example:
+     *  <pre>
+     *    Simulator.schedule( endOfTime, (double t)-> Simulator.stop() );
+     *  </pre>
+     */
+    public static void stop() {
+        stopped = true;
+    }
+
+    /** The event set and clock, as saved by save
+     *  Only the batches waiting and their events are kept, in heap order
+     *  and list order; slots and the hash table are rebuilt by restore.
+     */
+    static class Saved {
+        private final int[] kinds, as;
+        private final long[] bs, orders;
+        private final Action[] acts;
+        private final long sequence;
+        private final long[] keys;     // of the batches, in heap order
+        private final int[] counts;    // events in each batch
+        private final boolean[] shuffled;
+        private final double now;
+
+        private Saved() {
+            final int n = Simulator.size;
+            kinds = new int[ n ];
+            as = new int[ n ];
+            bs = new long[ n ];
+            acts = new Action[ n ];
+            orders = new long[ n ];
+            keys = Arrays.copyOf( heapKeys, heapSize );
+            counts = new int[ heapSize ];
+            shuffled = new boolean[ heapSize ];
+            int i = 0;
+            for (int k = 0; k < heapSize; k++) {
+                final int batch = heapBatches[k];
+                shuffled[k] = Simulator.shuffled[batch];
+                for (int e = heads[batch]; e >= 0; e = nexts[e]) {
+                    kinds[i] = Simulator.kinds[e];
+                    as[i] = Simulator.as[e];
+                    bs[i] = Simulator.bs[e];
+                    acts[i] = Simulator.acts[e];
+                    orders[i] = Simulator.orders[e];
+                    i = i + 1;
+                }
+                counts[k] = i;
+            }
+            sequence = Simulator.sequence;
+            now = Simulator.now;
+        }
+    }
+
+    /** Save the event set and clock
+     *  @return the saved state, see restore
+     *  @see TimeWarp
+     */
+    static Saved save() {
+        return new Saved();
+    }
+
+    /** Put the event set and clock back as they were saved
+     *  @param s -- the saved state, which may be restored again later
+     *  Each batch comes back as the batch of the same number as its place
+     *  in the heap, with its events in consecutive slots.
+     */
+    static void restore( Saved s ) {
+        Arrays.fill( acts, 0, used, null ); // don't hold on to actions
+        final int n = s.kinds.length;
+        if (kinds.length < n) { // grow to fit, with room to double
+            final int m = Integer.highestOneBit( n ) * 2;
+            kinds = new int[ m ];
+            as = new int[ m ];
+            bs = new long[ m ];
+            acts = new Action[ m ];
+            nexts = new int[ m ];
+            orders = new long[ m ];
+        }
+        System.arraycopy( s.kinds, 0, kinds, 0, n );
+        System.arraycopy( s.as, 0, as, 0, n );
+        System.arraycopy( s.bs, 0, bs, 0, n );
+        System.arraycopy( s.acts, 0, acts, 0, n );
+        System.arraycopy( s.orders, 0, orders, 0, n );
+        size = n;
+        used = n;
+        free = -1;
+        sequence = s.sequence;
+
+        final int b = s.keys.length;
+        if (heads.length < b) { // grow to fit, with room to double
+            final int m = Integer.highestOneBit( b ) * 2;
+            heads = new int[ m ];
+            tails = new int[ m ];
+            shuffled = new boolean[ m ];
+        }
+        if (heapKeys.length < b) { // likewise
+            final int m = Integer.highestOneBit( b ) * 2;
+            heapKeys = new long[ m ];
+            heapBatches = new int[ m ];
+        }
+        batchesUsed = b;
+        freeBatch = -1;
+        heapSize = b;
+        if (tableKeys.length < 2 * (b + 1)) {
+            tableKeys = emptyTable( Integer.highestOneBit( b + 1 ) * 4 );
+            tableBatches = new int[ tableKeys.length ];
+        } else {
+            Arrays.fill( tableKeys, EMPTY );
+        }
+        tableSize = 0;
+        int first = 0;
+        for (int k = 0; k < b; k++) { // link each batch's events in order
+            for (int e = first; e < s.counts[k] - 1; e++) nexts[e] = e + 1;
+            nexts[ s.counts[k] - 1 ] = -1;
+            heads[k] = first;
+            tails[k] = s.counts[k] - 1;
+            shuffled[k] = s.shuffled[k];
+            heapKeys[k] = s.keys[k];
+            heapBatches[k] = k;
+            insert( s.keys[k], k );
+            first = s.counts[k];
+        }
+        now = s.now;
+    }
+
+    /** Forget all pending events and hooks, ready for a new simulation
+     */
+    public static void reset() {
+        Arrays.fill( acts, 0, used, null );
+        size = 0;
+        used = 0;
+        free = -1;
+        batchesUsed = 0;
+        freeBatch = -1;
+        heapSize = 0;
+        Arrays.fill( tableKeys, EMPTY );
+        tableSize = 0;
+        sequence = 0;
+        hooks.clear();
+        stopped = false;
+        now = 0.0;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,266 @@
+// Splitting.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** Estimates of the probability of rare outbreaks by multilevel splitting
+ *  @see Epidemic#main for the -split option that uses this
+ *  The probability that some measure of the outbreak reaches a final
+ *  level before the epidemic dies out or time ends is estimated with
+ *  fixed effort splitting.  Each stage runs the same number of trials,
+ *  starting from the states in which earlier trials first reached the
+ *  previous level, and counts how many reach the next level.  The
+ *  estimate is the product of the fractions that succeed at each stage.
+ *
+ *  The model is all static state, so a state is cloned by replay: it is
+ *  recorded as the seeds a trial used and the times from which it used
+ *  each one.  Seeded runs are exactly reproducible, see Trace, so
+ *  rebuilding the model and running it again with those seeds brings it
+ *  back to the same state, and a new seed then makes the clone go its
+ *  own way.  Levels are checked once per simulated hour, so a state is
+ *  always recorded at the end of an hour.
+ *
+ *  The measure is either infected, meaning everyone ever infected, or
+ *  the name of a disease state, meaning the number currently in it.
+ */
+class Splitting {
+    private Splitting() {} // nobody should ever construct a Splitting
+
+    /** how often levels are checked */
+    public static final double slice = Time.hour;
+
+    // how a trial runs; from times[i] on, it uses seeds[i]
+    // times[0] is 0.0, and seeds[0] is also used to build the model
+    // a state is a path and the time it was run to
+    private static class Path {
+        final double[] times;
+        final long[] seeds;
+
+        Path( double[] t, long[] s ) {
+            times = t;
+            seeds = s;
+        }
+
+        /** @return this path, continued from time t with seed s */
+        Path then( double t, long s ) {
+            final double[] nt = Arrays.copyOf( times, times.length + 1 );
+            final long[] ns = Arrays.copyOf( seeds, seeds.length + 1 );
+            nt[times.length] = t;
+            ns[seeds.length] = s;
+            return new Path( nt, ns );
+        }
+
+        /** @return the time from which the last seed is used */
+        double start() {
+            return times[ times.length - 1 ];
+        }
+    }
+
+    // what is being estimated, see estimate
+    private static String model;
+    private static int state; // the disease state measured, -1 = infected
+    private static double end;
+
+    // where reports of trials go, nowhere
+    private static final PrintStream nowhere
+            = new PrintStream( OutputStream.nullOutputStream() );
+
+    // seeds for trials, and the work done
+    private static long seedSource;
+    private static long seeds; // how many seeds were handed out
+    private static long events;
+    private static double days;
+
+    /** Estimate the probability of reaching a level, from the command line
+     *  @param how -- the effort, the measure, and the levels separated
+     *                by commas, as on the command line
+     *  @param file -- the name of the model file
+     *  @param seed -- where the seeds of all the trials come from
+     *  @param out -- where the results go
+     */
+    public static void estimate(
+            String[] how, String file, long seed, PrintStream out
+    ) {
+        int effort = 0;
+        final String[] words = how[2].split( "," );
+        final int[] levels = new int[ words.length ];
+        try {
+            effort = Integer.parseInt( how[0] );
+            for (int i = 0; i < words.length; i++) {
+                levels[i] = Integer.parseInt( words[i] );
+            }
+        } catch ( NumberFormatException e ) {
+            Error.fatal( "-split: bad number " + e.getMessage() );
+        }
+        if (effort < 1) Error.fatal( "-split " + how[0] + ": bad effort" );
+        estimate( effort, how[1], levels, file, seed, out );
+    }
+
+    /** Estimate the probability of reaching a level
+     *  @param effort -- how many trials to run at each level
+     *  @param measure -- infected, or the name of a disease state
+     *  @param levels -- the levels, in increasing order; the last one is
+     *                   the one whose probability is wanted
+     *  @param file -- the name of the model file
+     *  @param seed -- where the seeds of all the trials come from
+     *  @param out -- where the results go
+     */
+    public static void estimate( int effort, String measure, int[] levels,
+            String file, long seed, PrintStream out
+    ) {
+        model = file;
+        state = Arrays.asList( Person.stateNames() ).indexOf( measure );
+        if ((state < 0) && !"infected".equals( measure )) {
+            Error.fatal( "-split: not a measure: " + measure );
+        }
+        for (int i = 1; i < levels.length; i++) {
+            if (levels[i] <= levels[i - 1]) {
+                Error.fatal( "-split: levels must increase" );
+            }
+        }
+        seedSource = seed;
+        seeds = 0;
+        events = 0;
+        days = 0.0;
+
+        out.println( "level,trials,reached,fraction" );
+        double p = 1.0;
+        double relativeVariance = 0.0; // of p, summed over the stages
+        ArrayList<Path> entrances = new ArrayList<>(); // level reached
+        ArrayList<Double> entered = new ArrayList<>(); // and when
+        for (int i = 0; i < levels.length; i++) {
+            final ArrayList<Path> reached = new ArrayList<>();
+            final ArrayList<Double> when = new ArrayList<>();
+            for (int j = 0; j < effort; j++) {
+                final Path path;
+                if (i == 0) { // start from scratch
+                    path = new Path( new double[] { 0.0 },
+                            new long[] { nextSeed() }
+                    );
+                } else { // go on from an entrance, in turn, with a new seed
+                    final int e = j % entrances.size();
+                    path = entrances.get( e ).then(
+                            entered.get( e ), nextSeed()
+                    );
+                }
+                final double t = trial( path, levels[i] );
+                if (!Double.isNaN( t )) {
+                    reached.add( path );
+                    when.add( t );
+                }
+            }
+
+            final double fraction = (double)reached.size() / effort;
+            out.println( levels[i] + "," + effort + ","
+                    + reached.size() + "," + fraction
+            );
+            if (reached.isEmpty()) { // no estimate, only a bound
+                out.println( String.format(
+                        "probability 0, below %.4g with 95%% confidence",
+                        p * 3.0 / effort
+                ) );
+                printWork( out );
+                return;
+            }
+            p = p * fraction;
+            relativeVariance = relativeVariance
+                    + (1 - fraction) / (effort * fraction);
+            entrances = reached;
+            entered = when;
+        }
+
+        // a 95% confidence interval, normal on the log scale
+        // this treats the stages as independent, so it is a bit narrow
+        // when many trials descend from the same few entrances
+        final double spread = Math.exp( 1.96 * Math.sqrt( relativeVariance ) );
+        out.println( String.format(
+                "probability %.4g, 95%% confidence %.4g to %.4g",
+                p, p / spread, Math.min( 1.0, p * spread )
+        ) );
+        if (relativeVariance > 0.0) {
+            out.println( String.format(
+                    "independent runs for the same precision: %.0f",
+                    (1 - p) / (p * relativeVariance)
+            ) );
+        }
+        printWork( out );
+    }
+
+    /** Get the seed for a new trial
+     *  @return the next seed of the family of the overall seed
+     */
+    private static long nextSeed() {
+        seeds = seeds + 1;
+        return MyRandom.substreamSeed( seedSource, seeds - 1 );
+    }
+
+    /** Run one trial
+     *  @param path -- the state to start from and the seed to go on with
+     *  @param level -- the level to reach
+     *  @return the time the level was reached, or NaN if it never was
+     *  A trial fails early once the epidemic is over, counting infections
+     *  still pending, see Person.epidemicOver, since no measure can
+     *  change after that.
+     */
+    private static double trial( Path path, int level ) {
+        final long firstEvent = Simulator.eventCount();
+        Epidemic.reset();
+        MyRandom.stream.setSeed( path.seeds[0] );
+        try {
+            end = Epidemic.buildModel( model );
+        } catch ( FileNotFoundException e ) {
+            Error.fatal( "could not open file: " + model );
+        }
+        Person.setOutput( nowhere );
+        Person.startReporting( false, end );
+
+        // replay up to the start of the path
+        for (int i = 1; i < path.times.length; i++) {
+            Simulator.run( path.times[i] );
+            MyRandom.stream.setSeed( path.seeds[i] );
+        }
+
+        // then go on until the level is reached, or can't be
+        double result = Double.NaN;
+        double t = path.start();
+        while (t < end) {
+            t = Math.min( (Math.floor( t / slice ) + 1) * slice, end );
+            Simulator.run( t );
+            if (measure() >= level) {
+                result = t;
+                break;
+            }
+            if (Person.epidemicOver()) break; // it can't be reached now
+        }
+
+        events = events + (Simulator.eventCount() - firstEvent);
+        days = days + Simulator.now() / Time.day;
+        return result;
+    }
+
+    /** Measure the outbreak
+     *  @return the number infected, or in the disease state measured
+     */
+    private static int measure() {
+        final int[] census = Person.census();
+        if (state >= 0) return census[state];
+        return Person.population() - census[0]; // 0 is uninfected
+    }
+
+    /** Report the work done
+     *  @param out -- where the report goes
+     */
+    private static void printWork( PrintStream out ) {
+        out.println( String.format(
+                "events %d, simulated days %.1f, including replay",
+                events, days
+        ) );
+    }
+}
@@ -0,0 +1,318 @@
+// Sweep.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/** Parameter sweeps run by a long lived simulator process
+ *  @see Parameters for the parameters that can be swept
+ *  @see Epidemic#runModel for what is run at each point of a sweep
+ *  Jobs are read from an input stream, one per line:
+ *  <pre>
+ *    sweep modelfile name=v1,v2,... name=v1,v2,...
+ *    quit
+ *  </pre>
+ *  Each sweep runs the model once for every combination of the values
+ *  given for each named parameter.
+ *  Results are written as JSON lines, in the order the runs finish:
+ *  <pre>
+ *    {"job":1,"points":4}
+ *    {"job":1,"point":2,"seed":-81...,"params":{"latent.median":2.5},
+ *     "rows":["time,...",...]}
+ *    {"job":1,"done":true}
+ *  </pre>
+ *  A point that fails has "error" in place of "rows", as does every point
+ *  of a sweep over a parameter the model does not have, see Parameters.
+ *  At most one point per processor runs at a time.  Point number n of
+ *  every job is run from the seed MyRandom.substreamSeed( seed, n ),
+ *  where seed is that of the whole sweep, so jobs over the same grid
+ *  are run with common seeds.
+ *
+ *  All of the model is held in static variables, so points that run at
+ *  the same time must each have their own copy of every class.  Each
+ *  copy, an engine, is loaded by a class loader of its own when a point
+ *  needs one and none is idle, so there are at most one per processor.
+ *  Engines are kept for later points, which reset them, see
+ *  Epidemic.runModel, so later points run in code that is already warm.
+ */
+class Sweep {
+    private Sweep() {} // nobody should ever construct a Sweep
+
+    // limit on points running at once
+    private static final Semaphore slots = new Semaphore(
+            Runtime.getRuntime().availableProcessors()
+    );
+
+    // the threads that run points
+    private static final ExecutorService workers
+            = Executors.newCachedThreadPool();
+
+    // where the classes to load for each engine come from
+    private static final URL[] classPath = {
+            Sweep.class.getProtectionDomain().getCodeSource().getLocation()
+    };
+
+    // engines not running a point, each Epidemic.runModel in its own
+    // class loader; guarded by synchronizing on idle
+    private static final ArrayDeque<Method> idle = new ArrayDeque<>();
+
+    // the seed of the whole sweep, see serve
+    private static long seed = 0;
+
+    /** Serve sweep jobs
+     *  @param in -- where jobs come from
+     *  @param out -- where results go
+     *  @param s -- the seed of the whole sweep, see runJob
+     *  This returns after quit or end of file once all jobs are done.
+     */
+    public static void serve( InputStream in, PrintStream out, long s ) {
+        seed = s;
+        final ArrayList<Thread> jobs = new ArrayList<>();
+        int requests = 0; // every request line gets a job number
+        final BufferedReader r = new BufferedReader(
+                new InputStreamReader( in, StandardCharsets.UTF_8 )
+        );
+        try {
+            for (String line = r.readLine(); line != null; line = r.readLine()) {
+                final String[] words = line.trim().split( "[ \t]+" );
+                if (words[0].isEmpty() || words[0].startsWith( "#" )) continue;
+                if ("quit".equals( words[0] )) break;
+
+                requests = requests + 1;
+                final int job = requests;
+                if (!"sweep".equals( words[0] ) || (words.length < 2)) {
+                    emit( out, "{\"job\":" + job + ",\"error\":"
+                            + quote( "expected sweep modelfile ..." ) + "}"
+                    );
+                    continue;
+                }
+                Thread t = new Thread( ()-> runJob( job, words, out ) );
+                jobs.add( t );
+                t.start();
+            }
+        } catch ( IOException e ) {
+            Error.warn( "sweep: " + e.getMessage() );
+        }
+
+        for (Thread t: jobs) { // wait for the jobs to finish
+            try {
+                t.join();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.shutdown();
+    }
+
+    /** Run all the points of one sweep job
+     *  @param job -- the job number
+     *  @param words -- the job request, split into words
+     *  @param out -- where results go
+     */
+    private static void runJob( int job, String[] words, PrintStream out ) {
+        final String model = words[1];
+        final String[] names = new String[ words.length - 2 ];
+        final double[][] values = new double[ names.length ][];
+        int points = 1;
+
+        // parse the parameter grid
+        try {
+            for (int i = 0; i < names.length; i++) {
+                final int eq = words[i + 2].indexOf( '=' );
+                if (eq <= 0) throw new NumberFormatException( words[i + 2] );
+                names[i] = words[i + 2].substring( 0, eq );
+                String[] v = words[i + 2].substring( eq + 1 ).split( "," );
+                values[i] = new double[ v.length ];
+                for (int j = 0; j < v.length; j++) {
+                    values[i][j] = Double.parseDouble( v[j] );
+                    // JSON has no NaN or Infinity, nor do models
+                    if (!Double.isFinite( values[i][j] )) {
+                        throw new NumberFormatException( words[i + 2] );
+                    }
+                }
+                points = Math.multiplyExact( points, v.length );
+            }
+        } catch ( NumberFormatException e ) {
+            emit( out, "{\"job\":" + job + ",\"error\":"
+                    + quote( "bad parameter " + e.getMessage() ) + "}"
+            );
+            return;
+        } catch ( ArithmeticException e ) {
+            emit( out, "{\"job\":" + job + ",\"error\":"
+                    + quote( "too many points" ) + "}"
+            );
+            return;
+        }
+        emit( out, "{\"job\":" + job + ",\"points\":" + points + "}" );
+
+        // launch each point as soon as there is a free slot
+        final Semaphore finished = new Semaphore( 0 );
+        for (int point = 0; point < points; point++) {
+            // decode the point number into one value per parameter
+            // the first parameter varies slowest
+            final Map<String,Double> params = new LinkedHashMap<>();
+            int stride = points;
+            for (int i = 0; i < names.length; i++) {
+                stride = stride / values[i].length;
+                params.put( names[i],
+                        values[i][ (point / stride) % values[i].length ]
+                );
+            }
+
+            try {
+                slots.acquire();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            final int p = point;
+            workers.execute( ()-> {
+                try {
+                    emit( out, runPoint( job, p, model, params ) );
+                } finally {
+                    slots.release();
+                    finished.release();
+                }
+            } );
+        }
+
+        finished.acquireUninterruptibly( points );
+        emit( out, "{\"job\":" + job + ",\"done\":true}" );
+    }
+
+    /** Get an engine to run a point on
+     *  @return an idle engine, or a new one if none is idle
+     *  @throws ReflectiveOperationException if a new one can't be loaded
+     *  The caller must hold a slot, so there are never more engines than
+     *  slots, and must give the engine back with release.
+     */
+    private static Method engine() throws ReflectiveOperationException {
+        synchronized (idle) {
+            if (!idle.isEmpty()) return idle.pop();
+        }
+        // never closed, since the engine it loads is kept for reuse
+        final URLClassLoader loader = new URLClassLoader(
+                classPath, ClassLoader.getPlatformClassLoader()
+        );
+        final Method run = Class.forName( "Epidemic", true, loader )
+                .getDeclaredMethod( "runModel",
+                        String.class, Map.class, long.class, PrintStream.class
+                );
+        run.setAccessible( true );
+        return run;
+    }
+
+    /** Give back an engine after running a point on it
+     *  @param run -- the engine, see engine
+     */
+    private static void release( Method run ) {
+        synchronized (idle) {
+            idle.push( run );
+        }
+    }
+
+    /** Run one point of a sweep on an engine of its own
+     *  @param job -- the job number
+     *  @param point -- the point number within the job
+     *  @param model -- the model file name
+     *  @param params -- the parameter values for this point
+     *  @return the result, as one line of JSON
+     */
+    private static String runPoint(
+            int job, int point, String model, Map<String,Double> params
+    ) {
+        final long pointSeed = MyRandom.substreamSeed( seed, point );
+        final StringBuilder json = new StringBuilder();
+        json.append( "{\"job\":" ).append( job );
+        json.append( ",\"point\":" ).append( point );
+        json.append( ",\"seed\":" ).append( pointSeed );
+        json.append( ",\"params\":{" );
+        String sep = "";
+        for (Map.Entry<String,Double> e: params.entrySet()) {
+            json.append( sep ).append( quote( e.getKey() ) );
+            json.append( ':' ).append( e.getValue() );
+            sep = ",";
+        }
+        json.append( '}' );
+
+        final ByteArrayOutputStream report = new ByteArrayOutputStream();
+        Method run = null;
+        try {
+            run = engine();
+            run.invoke( null, model, params, pointSeed, new PrintStream(
+                    report, false, StandardCharsets.UTF_8
+            ) );
+        } catch ( InvocationTargetException e ) {
+            return json.append( ",\"error\":" )
+                    .append( quote( String.valueOf( e.getCause() ) ) )
+                    .append( '}' ).toString();
+        } catch ( ReflectiveOperationException e ) {
+            return json.append( ",\"error\":" )
+                    .append( quote( e.toString() ) )
+                    .append( '}' ).toString();
+        } finally {
+            // the next point resets it, even after a failure
+            if (run != null) release( run );
+        }
+
+        json.append( ",\"rows\":[" );
+        sep = "";
+        final String rows = report.toString( StandardCharsets.UTF_8 );
+        for (String row: rows.split( "\n" )) {
+            if (row.isEmpty()) continue;
+            json.append( sep ).append( quote( row ) );
+            sep = ",";
+        }
+        return json.append( "]}" ).toString();
+    }
+
+    /** Quote a string for JSON
+     *  @param s -- the string
+     *  @return s in quotes, with quotes, backslashes and controls escaped
+     */
+    private static String quote( String s ) {
+        final StringBuilder q = new StringBuilder( "\"" );
+        for (char c: s.toCharArray()) {
+            if ((c == '"') || (c == '\\')) {
+                q.append( '\\' ).append( c );
+            } else if (c < ' ') {
+                q.append( String.format( "\\u%04x", (int)c ) );
+            } else {
+                q.append( c );
+            }
+        }
+        return q.append( '"' ).toString();
+    }
+
+    /** Write one line of results
+     *  @param out -- where results go
+     *  @param line -- the line
+     *  Results come from many threads, so lines are written whole.
+     */
+    private static void emit( PrintStream out, String line ) {
+        synchronized (out) {
+            out.println( line );
+            out.flush();
+        }
+    }
+}
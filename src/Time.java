@@ -5,17 +5,41 @@
  */
 
 /** All about simulated time
+ *  Times are given in seconds, but the simulation clock counts whole
+ *  ticks, so that the times of events can be compared exactly and
+ *  cheaply; see Simulator.
  */
 class Time {
+    private Time() {} // nobody should ever construct a Time
+
     /** one second of simulated time */
-    public static double second = 1.0F;
+    public static final double second = 1.0F;
 
     /** one minute of simulated time */
-    public static double minute = 60.0F * second;
+    public static final double minute = 60.0F * second;
 
     /** one hour of simulated time */
-    public static double hour = 60.0F * minute;
+    public static final double hour = 60.0F * minute;
 
     /** one day of simulated time */
-    public static double day = 24.0F * hour;
+    public static final double day = 24.0F * hour;
+
+    /** ticks of the simulation clock per second */
+    public static final long ticksPerSecond = 1000;
+
+    /** Convert a time to clock ticks
+     *  @param t -- the time
+     *  @return the nearest tick
+     */
+    public static long toTicks( double t ) {
+        return Math.round( t * ticksPerSecond );
+    }
+
+    /** Convert clock ticks to a time
+     *  @param k -- the ticks
+     *  @return the time; toTicks( fromTicks( k ) ) is always k
+     */
+    public static double fromTicks( long k ) {
+        return k / (double)ticksPerSecond;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,511 @@
+// TimeWarp.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+/** Optimistic synchronization of the shards of a distributed run
+ *  @see Distributed for the shards and the messages they send
+ *  @see Epidemic#main for the -optimistic option that selects this
+ *  With windows, see Distributed, a message takes effect up to a window
+ *  late, and there is no lookahead to make windows safe, because an
+ *  infection may follow an arrival after an arbitrarily short delay.
+ *  With Time Warp, each message takes effect at the tick it was sent,
+ *  after the events of that tick, so that a reply never overtakes the
+ *  event that caused it, and shards run ahead optimistically.
+ *  A shard that gets a message from its past, a straggler, rolls back
+ *  to a saved state and runs forward again.
+ *
+ *  Once every horizon of simulated time, each shard saves the state of
+ *  its event set, people, places and pending disease changes, see
+ *  Simulator.save and its kin.  Saving copies all of it, and costs
+ *  more than running an hour of a big model again, so states are saved
+ *  about once a round, and rollbacks run forward a little further.
+ *  A rollback restores the latest saved state at or before the
+ *  straggler, and the messages received since are delivered again, in
+ *  the same order, so the shard runs forward as if the straggler had
+ *  come in time.
+ *
+ *  Messages sent since the state restored may now be wrong.  They are
+ *  cancelled lazily: a message sent again unchanged as the shard runs
+ *  forward is not sent twice, and each one not sent again by the end of
+ *  the round is cancelled by an anti-message.  That annihilates it where
+ *  it went, rolling that shard back in turn if it was already delivered.
+ *
+ *  The coordinator runs the shards in rounds.  In each round, each shard
+ *  gets its mail, rolls back if it must, and runs up to the global
+ *  virtual time plus the horizon.  The next global virtual time is the
+ *  earliest of the messages sent during the round and of the next event
+ *  or message waiting at each shard, and nothing can roll back to before
+ *  it.  States, messages and reports older than that are fossils:
+ *  reports are committed to the coordinator, and all but the last state
+ *  saved at or before the global virtual time are forgotten.
+ *
+ *  Messages at the same tick are delivered in order of their senders and
+ *  of sending, so a run does not depend on the horizon, on rollbacks or
+ *  on timing.  All draws come from keyed streams, see MyRandom.setCommon,
+ *  so a rollback draws the same numbers again.
+ */
+class TimeWarp {
+    private TimeWarp() {} // nobody should ever construct a TimeWarp
+
+    // states are saved at each multiple of this many ticks, the horizon
+    private static long interval = 1;
+
+    // the type of an anti-message is that of its message with this bit set
+    private static final byte ANTI = 0x40;
+
+    // bytes following the type of a message: dest, time, sender, serial,
+    // person, place and state
+    private static final int LETTER = 4 + 8 + 4 + 4 + 4 + 4 + 1;
+
+    // this shard, and where its messages go; null if not optimistic
+    private static int shard = 0;
+    private static DataOutputStream toCoordinator = null;
+
+    /** A message about a person, from one shard to another
+     *  Messages are ordered by time, then sender and order of sending,
+     *  then content, so a message and a different one sent in its place
+     *  after a rollback are told apart.
+     */
+    private static class Message implements Comparable<Message> {
+        final long time;   // the tick it takes effect
+        final int sender;  // the shard that sent it
+        final int serial;  // how many the sender sent before, that tick
+        final byte type;   // Distributed.ARRIVE etc
+        final int dest;    // the shard it is for
+        final int person;
+        final int place;
+        final byte state;  // the person's disease state when sent
+
+        Message( long time, int sender, int serial, byte type, int dest,
+                int person, int place, byte state
+        ) {
+            this.time = time;
+            this.sender = sender;
+            this.serial = serial;
+            this.type = type;
+            this.dest = dest;
+            this.person = person;
+            this.place = place;
+            this.state = state;
+        }
+
+        /** @return a message that comes before all others at time t */
+        static Message before( long t ) {
+            return new Message( t, -1, 0, (byte)0, 0, 0, 0, (byte)0 );
+        }
+
+        public int compareTo( Message m ) {
+            int c = Long.compare( time, m.time );
+            if (c == 0) c = Integer.compare( sender, m.sender );
+            if (c == 0) c = Integer.compare( serial, m.serial );
+            if (c == 0) c = Byte.compare( type, m.type );
+            if (c == 0) c = Integer.compare( dest, m.dest );
+            if (c == 0) c = Integer.compare( person, m.person );
+            if (c == 0) c = Integer.compare( place, m.place );
+            if (c == 0) c = Byte.compare( state, m.state );
+            return c;
+        }
+
+        public boolean equals( Object o ) {
+            return (o instanceof Message) && (compareTo( (Message)o ) == 0);
+        }
+
+        public int hashCode() {
+            return Long.hashCode( time ) * 31 + serial;
+        }
+
+        /** send this message, or its anti-message
+         *  @param out -- where it goes
+         *  @param anti -- true to send the anti-message
+         */
+        void write( DataOutputStream out, boolean anti ) throws IOException {
+            out.writeByte( anti ? (type | ANTI) : type );
+            out.writeInt( dest );
+            out.writeLong( time );
+            out.writeInt( sender );
+            out.writeInt( serial );
+            out.writeInt( person );
+            out.writeInt( place );
+            out.writeByte( state );
+        }
+    }
+
+    /** A state of this shard, saved
+     */
+    private static class Checkpoint {
+        final long time;   // the tick, see now
+        long events;       // Simulator.eventCount when saved or restored
+        final long lastSent = TimeWarp.lastSent;
+        final int serial = TimeWarp.serial;
+        final Simulator.Saved eventSet = Simulator.save();
+        final Person.Saved people = Person.save();
+        final Place.Saved places = Place.save();
+        final Progression.Saved changes = Progression.save();
+        final Intervention.Saved interventions = Intervention.save();
+
+        Checkpoint( long t ) {
+            time = t;
+            events = Simulator.eventCount();
+        }
+
+        /** make this the state of the shard again */
+        void restore() {
+            events = Simulator.eventCount(); // what is undone is counted
+            TimeWarp.lastSent = lastSent;
+            TimeWarp.serial = serial;
+            Simulator.restore( eventSet );
+            Person.restore( people );
+            Place.restore( places );
+            Progression.restore( changes );
+            Intervention.restore( interventions );
+        }
+    }
+
+    /** A row of this shard's part of the report, not yet committed
+     */
+    private static class Report {
+        final double time;
+        final int[] census;
+        final int pending; // infections pending, see Person.epidemicOver
+
+        Report( double t, int[] c, int p ) {
+            time = t;
+            census = c;
+            pending = p;
+        }
+    }
+
+    // the states saved, oldest first, the first always at or before GVT
+    private static final ArrayList<Checkpoint> saved = new ArrayList<>();
+
+    // messages received and not yet fossils, and the last one delivered
+    private static final TreeSet<Message> input = new TreeSet<>();
+    private static Message delivered = Message.before( 0 );
+
+    // messages sent and not yet fossils, in order of sending, and those
+    // sent before the last rollback that have not been sent again
+    private static final ArrayDeque<Message> output = new ArrayDeque<>();
+    private static final TreeSet<Message> pending = new TreeSet<>();
+
+    // reports not yet committed, and the time before which all are
+    private static final ArrayDeque<Report> reports = new ArrayDeque<>();
+    private static long committed = 0;
+
+    // the local virtual time: events and messages before this tick are
+    // done, though events they scheduled for their own tick may not be
+    private static long now = 0;
+
+    // the tick of a message being delivered, -1 if none, see send
+    private static long delivering = -1;
+
+    // the tick of the last message sent and how many were sent then
+    private static long lastSent = -1;
+    private static int serial = 0;
+
+    // how much work was wasted
+    private static int rollbacks = 0;
+    private static long undone = 0;      // events rolled back
+    private static int antiMessages = 0;
+
+    /** Is this shard optimistic
+     *  @return true if messages go through Time Warp
+     */
+    public static boolean isEnabled() {
+        return toCoordinator != null;
+    }
+
+    /** Send a message about a person to another shard
+     *  @param type -- Distributed.ARRIVE etc
+     *  @param dest -- the shard the message is for
+     *  @param p -- the person
+     *  @param q -- the place
+     *  The message takes effect at the current time, see Distributed.send.
+     */
+    static void send( byte type, int dest, Person p, Place q ) {
+        final long t = (delivering >= 0)
+                ? delivering : Time.toTicks( Simulator.now() );
+        if (t == lastSent) {
+            serial = serial + 1;
+        } else {
+            lastSent = t;
+            serial = 0;
+        }
+        final Message m = new Message(
+                t, shard, serial, type, dest, p.id, q.id, (byte)p.state()
+        );
+        output.add( m );
+        if (pending.remove( m )) return; // sent before the rollback
+        try {
+            m.write( toCoordinator, false );
+        } catch ( IOException e ) {
+            Error.fatal( "shard " + shard + ": " + e.getMessage() );
+        }
+    }
+
+    /** Hold this shard's part of a row of the report until committed
+     *  @param time -- the time of the report
+     *  @param census -- the number of people here in each disease state
+     *  @param pending -- how many people here have an infection pending
+     */
+    static void report( double time, int[] census, int pending ) {
+        if (Time.toTicks( time ) < committed) return; // sent already
+        reports.add( new Report( time, census.clone(), pending ) );
+    }
+
+    /** Run one shard optimistically
+     *  @param in -- where the coordinator's orders come from
+     *  @param out -- where this shard's messages go
+     *  @param index -- the number of this shard
+     *  @param horizon -- how far to run ahead of global virtual time
+     *  The model must be built and the shard set up, see Distributed.
+     *  This returns when the coordinator says to stop.
+     */
+    static void runShard( DataInputStream in, DataOutputStream out,
+            int index, double horizon
+    ) throws IOException {
+        shard = index;
+        toCoordinator = out;
+        interval = Math.max( 1, Time.toTicks( horizon ) );
+        saved.add( new Checkpoint( 0 ) );
+        int rounds = 0;
+
+        for (byte type = in.readByte(); type != Distributed.STOP;
+                type = in.readByte()
+        ) {
+            if (type != Distributed.RUN) {
+                Error.fatal( "shard " + index + ": bad message " + type );
+            }
+            final long gvt = in.readLong();
+            final long limit = in.readLong();
+            final int letters = in.readInt();
+
+            // take the mail, noting the earliest message it changes
+            long straggler = Long.MAX_VALUE;
+            for (int i = 0; i < letters; i++) {
+                final byte t = in.readByte();
+                final int dest = in.readInt();
+                final long time = in.readLong();
+                final int sender = in.readInt();
+                final int n = in.readInt();
+                final Message m = new Message( time, sender, n,
+                        (byte)(t & ~ANTI), dest,
+                        in.readInt(), in.readInt(), in.readByte()
+                );
+                final boolean changed = ((t & ANTI) == 0)
+                        ? input.add( m ) : input.remove( m );
+                if (!changed) {
+                    Error.fatal( "shard " + index + ": lost message" );
+                }
+                if (m.time < now) straggler = Math.min( straggler, m.time );
+            }
+            // commit first: a rollback may go back past gvt, and what is
+            // older than gvt is final
+            collectFossils( gvt );
+            if (straggler < now) rollback( straggler );
+
+            advance( limit );
+
+            // cancel what was not sent again since the rollback
+            for (Message m: pending) m.write( out, true );
+            antiMessages = antiMessages + pending.size();
+            pending.clear();
+
+            out.writeByte( Distributed.DONE );
+            out.writeLong( next() );
+            out.flush();
+            rounds = rounds + 1;
+        }
+
+        System.err.println( "shard " + index + ": " + rounds + " rounds, "
+                + rollbacks + " rollbacks, " + undone + " of "
+                + Simulator.eventCount() + " events undone, "
+                + antiMessages + " anti-messages"
+        );
+    }
+
+    /** Roll this shard back
+     *  @param t -- the tick of the straggler; the shard goes back to the
+     *              latest state saved at or before it
+     */
+    private static void rollback( long t ) {
+        int k = saved.size() - 1;
+        while (saved.get( k ).time > t) k = k - 1;
+        final Checkpoint c = saved.get( k );
+        saved.subList( k + 1, saved.size() ).clear();
+
+        undone = undone + (Simulator.eventCount() - c.events);
+        rollbacks = rollbacks + 1;
+        c.restore();
+        now = c.time;
+        delivered = Message.before( c.time );
+
+        // messages sent since then may be sent again, or else cancelled
+        while (!output.isEmpty() && (output.peekLast().time >= c.time)) {
+            pending.add( output.pollLast() );
+        }
+        while (!reports.isEmpty()
+                && (Time.toTicks( reports.peekLast().time ) >= c.time)
+        ) {
+            reports.pollLast();
+        }
+    }
+
+    /** Commit and forget what is older than global virtual time
+     *  @param gvt -- the global virtual time
+     */
+    private static void collectFossils( long gvt ) throws IOException {
+        int k = saved.size() - 1;
+        while (saved.get( k ).time > gvt) k = k - 1;
+        saved.subList( 0, k ).clear();
+        final long oldest = saved.get( 0 ).time;
+
+        // keep what a rollback to the oldest state would need
+        input.headSet( Message.before( oldest ) ).clear();
+        while (!output.isEmpty() && (output.peekFirst().time < oldest)) {
+            output.pollFirst();
+        }
+
+        while (!reports.isEmpty()
+                && (Time.toTicks( reports.peekFirst().time ) < gvt)
+        ) {
+            final Report r = reports.pollFirst();
+            toCoordinator.writeByte( Distributed.REPORT );
+            toCoordinator.writeDouble( r.time );
+            for (int n: r.census) toCoordinator.writeInt( n );
+            toCoordinator.writeInt( r.pending );
+        }
+        committed = Math.max( committed, gvt );
+    }
+
+    /** Run this shard forward
+     *  @param limit -- the tick to run up to
+     *  Messages are delivered at their ticks, after the events there, and
+     *  states are saved at each multiple of interval on the way.
+     */
+    private static void advance( long limit ) {
+        while (true) {
+            final Message m = input.higher( delivered );
+            if ((m != null) && (m.time < now)) { // its tick's events are done
+                delivering = m.time;
+                Distributed.deliver( m.type, Time.fromTicks( m.time ),
+                        Person.byIndex( m.person ), Place.byIndex( m.place ),
+                        m.state
+                );
+                delivering = -1;
+                delivered = m;
+                continue;
+            }
+
+            // everything before now is done
+            if (((now % interval) == 0)
+                    && (saved.get( saved.size() - 1 ).time < now)
+            ) {
+                saved.add( new Checkpoint( now ) );
+            }
+            if (now >= limit) break;
+
+            long stop = Math.min( limit, (now / interval + 1) * interval );
+            if (m != null) stop = Math.min( stop, m.time + 1 );
+            Simulator.runTicks( stop );
+            now = stop;
+        }
+    }
+
+    /** When might this shard do something next
+     *  @return the tick of its next event or undelivered message
+     */
+    private static long next() {
+        final Message m = input.higher( delivered );
+        final long t = Time.toTicks( Simulator.next() );
+        return (m == null) ? t : Math.min( t, m.time );
+    }
+
+    /** Run the rounds of an optimistic distributed simulation
+     *  @param from -- where each shard's messages come from
+     *  @param to -- where each shard's messages go
+     *  @param end -- the end of time
+     *  @param horizon -- how far shards may run ahead of global virtual time
+     *  @param out -- where the CSV report goes
+     *  This returns at the end of time or when the epidemic is over.
+     */
+    static void exchange( DataInputStream[] from, DataOutputStream[] to,
+            double end, double horizon, PrintStream out
+    ) throws IOException {
+        final int count = from.length;
+        final ByteArrayOutputStream[] mail
+                = new ByteArrayOutputStream[ count ];
+        final int[] letters = new int[ count ];
+        final byte[] letter = new byte[ LETTER ];
+        for (int k = 0; k < count; k++) mail[k] = new ByteArrayOutputStream();
+        final Distributed.Report report = new Distributed.Report( count );
+        final long last = Time.toTicks( end );
+        final long ahead = Math.max( 1, Time.toTicks( horizon ) );
+
+        Person.printHeadline( out );
+        long gvt = 0;
+        while (true) {
+            final long limit = Math.min( gvt + ahead, last );
+
+            // deliver the mail and run this round
+            for (int k = 0; k < count; k++) {
+                to[k].writeByte( Distributed.RUN );
+                to[k].writeLong( gvt );
+                to[k].writeLong( limit );
+                to[k].writeInt( letters[k] );
+                mail[k].writeTo( to[k] );
+                to[k].flush();
+                mail[k].reset();
+                letters[k] = 0;
+            }
+
+            // collect this round's mail and committed reports
+            long next = Long.MAX_VALUE;
+            for (int k = 0; k < count; k++) {
+                for (byte type = from[k].readByte(); type != Distributed.DONE;
+                        type = from[k].readByte()
+                ) {
+                    if (type == Distributed.REPORT) {
+                        report.read( from[k] );
+                    } else {
+                        from[k].readFully( letter );
+                        final int dest = (int)bytes( letter, 0, 4 );
+                        next = Math.min( next, bytes( letter, 4, 8 ) );
+                        mail[dest].write( type );
+                        mail[dest].write( letter );
+                        letters[dest] = letters[dest] + 1;
+                    }
+                }
+                next = Math.min( next, from[k].readLong() );
+            }
+
+            // committed rows are final, see Distributed.Report
+            if (report.print( true, end, out )) return;
+            if (gvt >= last) break; // that round committed the last rows
+            gvt = Math.max( gvt, Math.min( next, last ) );
+        }
+        out.flush();
+    }
+
+    /** Take a big endian number out of a letter
+     *  @param b -- the letter
+     *  @param from -- where the number starts
+     *  @param n -- how many bytes it has
+     *  @return the number
+     */
+    private static long bytes( byte[] b, int from, int n ) {
+        long v = 0;
+        for (int i = from; i < from + n; i++) v = (v << 8) | (b[i] & 0xFF);
+        return v;
+    }
+}
@@ -0,0 +1,106 @@
+// Trace.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.io.PrintStream;
+
+/** Hash chained trace of the events of a simulation
+ *  @see Regress for comparing traces
+ *  Every event triggered is folded into a running 64 bit digest, along
+ *  with its time, kind and the entity it acts on.  At each daily report
+ *  the trace gets one line:
+ *  <pre>
+ *    day,events,digest,uninfected,latent,...,dead
+ *  </pre>
+ *  Two runs of the same model from the same seed on engines that are
+ *  exactly equivalent give identical traces; the first line that differs
+ *  tells when they diverged, and whether the population noticed.
+ */
+class Trace {
+    private Trace() {} // nobody should ever construct a Trace
+
+    // where the trace goes, null if not tracing
+    private static PrintStream out = null;
+
+    // the running digest and the events folded into it
+    private static long digest = 0;
+    private static long events = 0;
+
+    /** Start tracing
+     *  @param o -- where the trace goes
+     *  @param seed -- the random seed, recorded in the trace
+     */
+    public static void start( PrintStream o, long seed ) {
+        out = o;
+        digest = seed;
+        events = 0;
+        out.print( "# seed " + seed + "\nday,events,digest" );
+        for (String s: Person.stateNames()) out.print( "," + s );
+        out.println();
+    }
+
+    /** Is tracing on
+     *  @return true if events should be passed to event
+     */
+    public static boolean isEnabled() {
+        return out != null;
+    }
+
+    /** Fold one event into the trace
+     *  @param time, kind, a, b -- the event, see Simulator.dispatch
+     */
+    static void event( double time, int kind, int a, long b ) {
+        final long entity;
+        switch (kind) {
+        case Simulator.GO:
+        case Simulator.GO_HOME:
+        case Simulator.INFECT:
+        case Simulator.CROWD:
+            entity = a; // the person or place
+            break;
+        case Simulator.PROGRESS:
+            entity = b; // the bucket
+            break;
+        default:
+            entity = 0; // nothing to identify
+        }
+        digest = mix( digest ^ Double.doubleToLongBits( time ) );
+        digest = mix( digest ^ ((long)kind << 56) ^ entity );
+        events = events + 1;
+
+        if (kind == Simulator.REPORT) line( time );
+    }
+
+    /** Finish the trace
+     *  @param time -- the end of the run
+     */
+    public static void finish( double time ) {
+        if (out == null) return;
+        line( time );
+        out.flush();
+        out = null;
+    }
+
+    /** Output one line of the trace
+     *  @param time
+     */
+    private static void line( double time ) {
+        out.print( Double.toString( time / Time.day ) );
+        out.print( "," + events + "," + Long.toHexString( digest ) );
+        for (int n: Person.census()) out.print( "," + n );
+        out.println();
+    }
+
+    /** Mix the bits of a value
+     *  @param z -- the value
+     *  @return a value in which every bit depends on every bit of z
+     *  This is the finalizer of SplitMix64.
+     */
+    private static long mix( long z ) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
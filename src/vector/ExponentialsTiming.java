@@ -0,0 +1,91 @@
+// ExponentialsTiming.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import java.util.Random;
+
+/** Timing of the scalar and Vector API versions of Place.exponentials
+ *  @see VectorExponentials
+ *  Usage:  java --add-modules jdk.incubator.vector ExponentialsTiming
+ *                 [size ...]
+ *  For each array size, the sizes of sweeps in Place.contagious, this
+ *  times both versions over the same uniforms and outputs a CSV line:
+ *  the size, the nanoseconds per value of each, the speedup of the
+ *  vector version, and the largest relative difference in the results.
+ */
+class ExponentialsTiming {
+    private ExponentialsTiming() {} // nobody should ever construct one
+
+    // values converted per timing, so each takes a measurable time
+    private static final int values = 1 << 24;
+
+    // sizes timed if none are given
+    private static final int[] sizes = { 8, 64, 256, 4096 };
+
+    // keeps the JIT from discarding results that are never used
+    private static double sink = 0.0;
+
+    /** Time one version of exponentials
+     *  @param e -- the version
+     *  @param u -- the uniforms, left unchanged
+     *  @param work -- scratch the size of u, holds the results after
+     *  @return nanoseconds per value converted
+     */
+    private static double time(
+            Place.Exponentials e, double[] u, double[] work
+    ) {
+        final int reps = Math.max( 1, values / u.length );
+        final long start = System.nanoTime();
+        for (int r = 0; r < reps; r++) {
+            System.arraycopy( u, 0, work, 0, u.length );
+            e.exponentials( work, u.length, 1.0 );
+            sink = sink + work[0];
+        }
+        return (System.nanoTime() - start) / ((double)reps * u.length);
+    }
+
+    /** The main method
+     *  @param args -- the array sizes to time, optional
+     */
+    public static void main( String[] args ) {
+        int[] n = sizes;
+        if (args.length > 0) {
+            n = new int[ args.length ];
+            for (int i = 0; i < args.length; i++) {
+                n[i] = Integer.parseInt( args[i] );
+            }
+        }
+        final Place.Exponentials scalar = Place::scalarExponentials;
+        final Place.Exponentials vector = new VectorExponentials();
+        final Random rand = new Random( 1 );
+
+        System.out.println( "size,scalar ns,vector ns,speedup,max rel diff" );
+        for (int size: n) {
+            final double[] u = new double[ size ];
+            for (int i = 0; i < size; i++) u[i] = rand.nextDouble();
+            final double[] s = new double[ size ];
+            final double[] v = new double[ size ];
+
+            // warm up both, so the JIT has compiled them, then time them
+            for (int w = 0; w < 3; w++) {
+                time( scalar, u, s );
+                time( vector, u, v );
+            }
+            final double ts = time( scalar, u, s );
+            final double tv = time( vector, u, v );
+
+            double diff = 0.0;
+            for (int i = 0; i < size; i++) {
+                if (s[i] > 0.0) {
+                    diff = Math.max( diff, Math.abs( s[i] - v[i] ) / s[i] );
+                }
+            }
+            System.out.println( size + "," + ts + "," + tv + ","
+                    + (ts / tv) + "," + diff
+            );
+        }
+        if (sink == 0.0) System.err.println( "" ); // use the sink
+    }
+}
@@ -0,0 +1,46 @@
+// VectorExponentials.java
+/* Program that will eventually develop into an epidemic simulator
+ * author Douglas W. Jones, Maria Hall
+ * version Apr. 18, 2021
+ */
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The Vector API version of Place.exponentials
+ *  @see Place#setVectorized for how this is found
+ *  This uses the incubator module jdk.incubator.vector, so it is compiled
+ *  apart from the rest of the program, and it is used only with -vector
+ *  and only if the module is added when the program is run, see README.
+ */
+class VectorExponentials implements Place.Exponentials {
+
+    // the widest vectors of doubles this machine handles well
+    private static final VectorSpecies<Double> species
+            = DoubleVector.SPECIES_PREFERRED;
+
+    /** turn uniforms into exponentials, a vector at a time
+     *  @param u -- the uniform values in [0,1), replaced by the results
+     *  @param n -- how many values in u to convert
+     *  @param mean -- the mean of the exponential distribution
+     *  The values past the last whole vector are done one at a time, the
+     *  same way as by Place.scalarExponentials.
+     */
+    public void exponentials( double[] u, int n, double mean ) {
+        final int bound = species.loopBound( n );
+        int i = 0;
+        while (i < bound) {
+            DoubleVector.fromArray( species, u, i )
+                    .neg().add( 1.0 )
+                    .lanewise( VectorOperators.LOG )
+                    .mul( -mean )
+                    .intoArray( u, i );
+            i = i + species.length();
+        }
+        while (i < n) {
+            u[i] = mean * -Math.log( 1.0 - u[i] );
+            i = i + 1;
+        }
+    }
+}